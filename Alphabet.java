@@ -1,15 +1,54 @@
 package enigma;
 
+import java.util.Arrays;
+
+import static enigma.EnigmaException.*;
+
 /** An alphabet of encodable characters.  Provides a mapping from characters
  *  to and from indices into the alphabet.
  *  @author Hanqi Xiong
  */
 class Alphabet {
 
+    /** The value returned by toInt for characters not in the alphabet. */
+    static final int UNKNOWN = -1;
+
     /** A new alphabet containing CHARS. The K-th character has index
      *  K (numbering from 0). No character may be duplicated. */
     Alphabet(String chars) {
+        this(chars, false);
+    }
+
+    /** A new alphabet containing CHARS, as for Alphabet(String), whose
+     *  characters are written in hexadecimal iff HEX (see decode). */
+    private Alphabet(String chars, boolean hex) {
         _alphabet = chars;
+        _hex = hex;
+        char max = 0;
+        for (int i = 0; i < chars.length(); i++) {
+            max = (char) Math.max(max, chars.charAt(i));
+        }
+        _max = max;
+        if (max < DIRECT_LIMIT) {
+            _direct = new int[max + 1];
+            Arrays.fill(_direct, UNKNOWN);
+            _keys = null;
+            _values = null;
+        } else {
+            int capacity = Integer.highestOneBit(Math.max(1, chars.length()))
+                << 2;
+            _direct = null;
+            _keys = new char[capacity];
+            _values = new int[capacity];
+            Arrays.fill(_values, UNKNOWN);
+        }
+        for (int i = 0; i < chars.length(); i++) {
+            if (toInt(chars.charAt(i)) != UNKNOWN) {
+                throw error("duplicate character %c in alphabet",
+                            chars.charAt(i));
+            }
+            put(chars.charAt(i), i);
+        }
     }
 
     /** A default alphabet of all upper-case characters. */
@@ -17,19 +56,59 @@ class Alphabet {
         this("ABCDEFGHIJKLMNOPQRSTUVWXYZ");
     }
 
+    /** Return an alphabet of the 256 byte values, the K-th character
+     *  being the one with code K, whose characters are written in
+     *  hexadecimal in configurations and settings. */
+    static Alphabet bytes() {
+        char[] chars = new char[BYTE_VALUES];
+        for (int k = 0; k < chars.length; k++) {
+            chars[k] = (char) k;
+        }
+        return new Alphabet(new String(chars), true);
+    }
+
+    /** Returns true iff my characters are the byte values, with the
+     *  K-th character having code K. */
+    boolean isBytes() {
+        return _hex;
+    }
+
+    /** Return the characters written as TEXT in a configuration or
+     *  setting: TEXT itself, unless my characters are written in
+     *  hexadecimal, in which case each pair of hex digits in TEXT
+     *  denotes the character with that code. */
+    String decode(String text) {
+        if (!_hex) {
+            return text;
+        }
+        if (text.length() % 2 != 0) {
+            throw error("odd number of hex digits in %s", text);
+        }
+        char[] result = new char[text.length() / 2];
+        for (int i = 0; i < result.length; i++) {
+            int high = Character.digit(text.charAt(2 * i), HEX_RADIX);
+            int low = Character.digit(text.charAt(2 * i + 1), HEX_RADIX);
+            if (high < 0 || low < 0) {
+                throw error("bad hex digits in %s", text);
+            }
+            result[i] = (char) (high * HEX_RADIX + low);
+        }
+        return new String(result);
+    }
+
     /** Returns the size of the alphabet. */
     int size() {
         return _alphabet.length();
     }
 
+    /** Returns the largest code of any of my characters. */
+    char maxChar() {
+        return _max;
+    }
+
     /** Returns true if CH is in this alphabet. */
     boolean contains(char ch) {
-        for (int i = 0; i < _alphabet.length(); i++) {
-            if (_alphabet.charAt(i) == ch) {
-                return true;
-            }
-        }
-        return false;
+        return toInt(ch) != UNKNOWN;
     }
 
     /** Returns character number INDEX in the alphabet, where
@@ -41,13 +120,69 @@ class Alphabet {
         return _alphabet.charAt(index);
     }
 
-    /** Returns the index of character CH which must be in
+    /** Returns the index of character CH, or UNKNOWN if CH is not in
      *  the alphabet. This is the inverse of toChar(). */
     int toInt(char ch) {
-        return _alphabet.indexOf(ch);
+        if (_direct != null) {
+            return ch < _direct.length ? _direct[ch] : UNKNOWN;
+        }
+        int mask = _keys.length - 1;
+        for (int h = hash(ch) & mask; _values[h] != UNKNOWN;
+             h = (h + 1) & mask) {
+            if (_keys[h] == ch) {
+                return _values[h];
+            }
+        }
+        return UNKNOWN;
+    }
+
+    /** Record that CH has index K. */
+    private void put(char ch, int k) {
+        if (_direct != null) {
+            _direct[ch] = k;
+            return;
+        }
+        int mask = _keys.length - 1;
+        int h = hash(ch) & mask;
+        while (_values[h] != UNKNOWN) {
+            h = (h + 1) & mask;
+        }
+        _keys[h] = ch;
+        _values[h] = k;
     }
 
+    /** Return a well-mixed hash of CH for the sparse table. */
+    private static int hash(char ch) {
+        int h = ch * 0x9E3779B1;
+        return h ^ (h >>> 16);
+    }
+
+    /** Number of byte values. */
+    private static final int BYTE_VALUES = 256;
+
+    /** Radix of the notation for byte alphabets. */
+    private static final int HEX_RADIX = 16;
+
+    /** Characters below this code are indexed by a direct table. */
+    private static final int DIRECT_LIMIT = 4096;
+
     /** Common alphabet of my rotors. */
     private final String _alphabet;
 
+    /** True iff my characters are written in hexadecimal. */
+    private final boolean _hex;
+
+    /** The largest code of any of my characters. */
+    private final char _max;
+
+    /** Index of each character by code, for compact alphabets, else
+     *  null. */
+    private final int[] _direct;
+
+    /** Open-addressed keys of the sparse index, or null. */
+    private final char[] _keys;
+
+    /** Indices corresponding to _keys; UNKNOWN marks an empty slot. */
+    private final int[] _values;
+
 }
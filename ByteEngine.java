@@ -0,0 +1,230 @@
+package enigma;
+
+import java.nio.ByteBuffer;
+
+import static enigma.EnigmaException.*;
+
+/** Converts bytes as a Machine over the byte alphabet (see
+ *  Alphabet.bytes()) would, working directly on ByteBuffers with every
+ *  table held as a byte array.  An engine starts from the state of a
+ *  machine, which it leaves unchanged until told to store its own state
+ *  back into it.
+ *  @author Hanqi Xiong
+ */
+final class ByteEngine {
+
+    /** An engine in the current state of MACHINE, whose alphabet must be
+     *  the byte alphabet and whose rotors and plugboard must be set. */
+    ByteEngine(Machine machine) {
+        if (!machine.alphabet().isBytes()) {
+            throw error("byte conversion needs the byte alphabet");
+        }
+        if (machine.getRotor(0) == null || machine.plugboard() == null) {
+            throw error("machine is not set up");
+        }
+        int slots = machine.numRotors();
+        _last = slots - 1;
+        int folded = 1;
+        while (folded < _last && !machine.getRotor(folded).rotates()) {
+            folded += 1;
+        }
+        _folded = folded;
+        _tables = new byte[(slots - _folded) * 2 * SIZE * SIZE];
+        _table = new int[slots];
+        _notch = new boolean[slots][];
+        _rotates = new boolean[slots];
+        _engages = new boolean[slots];
+        _setting = new int[slots];
+        _ring = new int[slots];
+        _base = new int[slots];
+        for (int i = _folded; i < slots; i++) {
+            Rotor rotor = machine.getRotor(i);
+            Wiring wiring = rotor.wiring();
+            _table[i] = (i - _folded) * 2 * SIZE * SIZE;
+            copy(wiring.forward(), _tables, _table[i]);
+            copy(wiring.backward(), _tables, _table[i] + SIZE * SIZE);
+            _notch[i] = new boolean[SIZE];
+            for (int p = 0; p < SIZE; p++) {
+                _notch[i][p] = wiring.notchAt(p);
+            }
+            _rotates[i] = rotor.rotates();
+            _engages[i] = rotor.rotates()
+                && machine.getRotor(i - 1).rotates();
+            _setting[i] = rotor.setting();
+            _ring[i] = rotor.ring();
+            rebase(i);
+        }
+        _quiet = quietSteps();
+        _plug = new byte[SIZE];
+        copy(machine.plugboard().forward(), _plug, 0);
+        _turnaround = new byte[SIZE];
+        copy(machine.turnaround(), _turnaround, 0);
+    }
+
+    /** Convert in place the bytes of BUF between its position and its
+     *  limit, leaving both unchanged. */
+    void convert(ByteBuffer buf) {
+        byte[] chunk = _chunk;
+        for (int k = buf.position(); k < buf.limit(); k += chunk.length) {
+            int len = Math.min(chunk.length, buf.limit() - k);
+            buf.get(k, chunk, 0, len);
+            convert(chunk, len);
+            buf.put(k, chunk, 0, len);
+        }
+    }
+
+    /** Convert the first LEN bytes of CHUNK in place. */
+    private void convert(byte[] chunk, int len) {
+        int last = _last;
+        int k = 0;
+        while (k < len) {
+            if (_quiet == 0) {
+                step();
+                chunk[k] = convert(chunk[k], _base[last]);
+                k += 1;
+                continue;
+            }
+            int run = Math.min(_quiet, len - k);
+            int table = _table[last];
+            int ring = _ring[last];
+            int setting = _setting[last];
+            for (int end = k + run; k < end; k++) {
+                setting = (setting + 1) & BYTE_MASK;
+                chunk[k] = convert(chunk[k], table
+                                   + ((setting - ring) & BYTE_MASK) * SIZE);
+            }
+            _quiet -= run;
+            _setting[last] = setting;
+            rebase(last);
+        }
+    }
+
+    /** Return the conversion of B with my rotors where they are, except
+     *  that the fast rotor's forward row starts at FASTBASE. */
+    private byte convert(byte b, int fastBase) {
+        byte[] tables = _tables;
+        int[] base = _base;
+        int c = _plug[b & BYTE_MASK] & BYTE_MASK;
+        c = tables[fastBase + c] & BYTE_MASK;
+        for (int i = _last - 1; i >= _folded; i--) {
+            c = tables[base[i] + c] & BYTE_MASK;
+        }
+        c = _turnaround[c] & BYTE_MASK;
+        for (int i = _folded; i < _last; i++) {
+            c = tables[base[i] + SIZE * SIZE + c] & BYTE_MASK;
+        }
+        c = tables[fastBase + SIZE * SIZE + c] & BYTE_MASK;
+        return _plug[c];
+    }
+
+    /** Set the rotors of MACHINE, the one I was made from, to my
+     *  positions. */
+    void store(Machine machine) {
+        for (int i = _folded; i <= _last; i++) {
+            if (_rotates[i]) {
+                machine.getRotor(i).set(_setting[i]);
+            }
+        }
+    }
+
+    /** Advance my rotors as Machine does before each conversion, when
+     *  the step may move more than the fast rotor. */
+    private void step() {
+        boolean carry = true;
+        for (int i = _last; i >= _folded; i--) {
+            boolean notch = _engages[i] && _notch[i][_setting[i]];
+            if ((carry || notch) && _rotates[i]) {
+                _setting[i] = (_setting[i] + 1) & BYTE_MASK;
+                rebase(i);
+            }
+            carry = notch;
+        }
+        _quiet = quietSteps();
+    }
+
+    /** Return the number of steps from now that will move only the fast
+     *  rotor. */
+    private int quietSteps() {
+        for (int i = _folded; i < _last; i++) {
+            if (_engages[i] && _notch[i][_setting[i]]) {
+                return 0;
+            }
+        }
+        if (!_rotates[_last]) {
+            return 0;
+        }
+        if (!_engages[_last]) {
+            return Integer.MAX_VALUE;
+        }
+        for (int d = 0; d < SIZE; d++) {
+            if (_notch[_last][(_setting[_last] + d) & BYTE_MASK]) {
+                return d;
+            }
+        }
+        return Integer.MAX_VALUE;
+    }
+
+    /** Recompute _base[I] from the setting and ring of slot I. */
+    private void rebase(int i) {
+        _base[i] = _table[i] + ((_setting[i] - _ring[i]) & BYTE_MASK) * SIZE;
+    }
+
+    /** Copy TABLE, whose entries are all byte values, into DEST
+     *  starting at START. */
+    private static void copy(int[] table, byte[] dest, int start) {
+        for (int k = 0; k < table.length; k++) {
+            dest[start + k] = (byte) table[k];
+        }
+    }
+
+    /** Bytes converted at once. */
+    private static final int CHUNK_SIZE = 1 << 13;
+
+    /** Size of the byte alphabet. */
+    private static final int SIZE = 256;
+
+    /** Mask selecting the unsigned value of a byte. */
+    private static final int BYTE_MASK = 0xff;
+
+    /** Index of the fast rotor's slot. */
+    private final int _last;
+
+    /** Number of slots, starting with the reflector, folded into
+     *  _turnaround. */
+    private final int _folded;
+
+    /** Forward and then backward tables, as for Wiring, of the rotor in
+     *  each unfolded slot in turn. */
+    private final byte[] _tables;
+
+    /** Start of each unfolded slot's tables in _tables. */
+    private final int[] _table;
+
+    /** Whether the rotor in each unfolded slot is at a notch, by
+     *  setting. */
+    private final boolean[][] _notch;
+
+    /** Whether the rotor in each slot rotates, and whether, at a notch,
+     *  it advances itself and the rotor to its left. */
+    private final boolean[] _rotates, _engages;
+
+    /** Setting and ring of the rotor in each slot. */
+    private final int[] _setting, _ring;
+
+    /** Bytes being converted, copied out of the caller's buffer. */
+    private final byte[] _chunk = new byte[CHUNK_SIZE];
+
+    /** Number of coming steps that move only the fast rotor. */
+    private int _quiet;
+
+    /** Start in _tables of the current row of each slot's forward
+     *  table. */
+    private final int[] _base;
+
+    /** The plugboard. */
+    private final byte[] _plug;
+
+    /** Composite table of the folded slots. */
+    private final byte[] _turnaround;
+
+}
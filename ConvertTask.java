@@ -0,0 +1,60 @@
+package enigma;
+
+import java.util.concurrent.RecursiveAction;
+
+/** A fork-join task converting a range of a character buffer in place.
+ *  Each segment is converted by its own copy of a starting machine,
+ *  jumped forward to the segment's first character, so the result is
+ *  the same as converting the whole range sequentially.
+ *  @author Hanqi Xiong
+ */
+class ConvertTask extends RecursiveAction {
+
+    /** A task converting BUF[FROM .. TO-1], where BUF[START] is the
+     *  character that ORIGIN would convert next.  ORIGIN is only
+     *  copied, never changed, and every character in the range must be
+     *  in its alphabet. */
+    ConvertTask(Machine origin, char[] buf, int start, int from, int to) {
+        _origin = origin;
+        _buf = buf;
+        _start = start;
+        _from = from;
+        _to = to;
+    }
+
+    @Override
+    protected void compute() {
+        if (_to - _from <= SEGMENT) {
+            Machine machine = new Machine(_origin);
+            machine.jump(_from - _start);
+            machine.convert(_buf, _from, _to - _from, UnknownPolicy.REJECT);
+        } else {
+            int mid = (_from + _to) >>> 1;
+            invokeAll(new ConvertTask(_origin, _buf, _start, _from, mid),
+                      new ConvertTask(_origin, _buf, _start, mid, _to));
+        }
+    }
+
+    /** Version of the serialized form, required as ForkJoinTask is
+     *  Serializable. */
+    private static final long serialVersionUID = 1L;
+
+    /** Largest number of characters converted by one task. */
+    static final int SEGMENT = 1 << 14;
+
+    /** Machine positioned at _buf[_start]. */
+    private final Machine _origin;
+
+    /** Buffer being converted. */
+    private final char[] _buf;
+
+    /** Index in _buf of the character _origin converts next. */
+    private final int _start;
+
+    /** First index of my range. */
+    private final int _from;
+
+    /** Index just past my range. */
+    private final int _to;
+
+}
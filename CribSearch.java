@@ -0,0 +1,528 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+
+import static enigma.EnigmaException.*;
+
+/** A search, in the manner of the Turing bombe, for the settings under
+ *  which a ciphertext could encipher a known piece of plaintext (the
+ *  crib).  Every arrangement of rotors from a machine's library is tried
+ *  at every starting position, with all rings at 0.  For each candidate,
+ *  the crib and the ciphertext under it form a menu: the crib letter A
+ *  and ciphertext letter B at step K require that the plugboard P
+ *  satisfy P(B) = S(P(A)), where S is the scrambler (the rotors) at step
+ *  K.  Each hypothesis for the plugboard partner of the most connected
+ *  letter of the menu is propagated along its edges; a candidate at which
+ *  a hypothesis leads to no contradiction is a stop.  Candidates are
+ *  simulated with the rotors' Wiring tables on primitive state, and
+ *  divided among the threads of a pool.
+ *  @author Hanqi Xiong
+ */
+class CribSearch {
+
+    /** A search for the settings of machines configured as MACHINE
+     *  (whose library, alphabet and numbers of rotors and pawls are
+     *  used) that convert the characters of CRIB, beginning at position
+     *  OFFSET of CIPHERTEXT, to the corresponding characters of
+     *  CIPHERTEXT.  Blanks in CIPHERTEXT and CRIB are ignored. */
+    CribSearch(Machine machine, String ciphertext, String crib,
+               int offset) {
+        _alphabet = machine.alphabet();
+        _size = _alphabet.size();
+        _numRotors = machine.numRotors();
+        int pawls = machine.numPawls();
+        if (pawls < 1 || pawls >= _numRotors) {
+            throw error("crib search needs between 1 and %d pawls",
+                        _numRotors - 1);
+        }
+        _folded = _numRotors - pawls;
+        int[] cipher = indices(ciphertext);
+        int[] plain = indices(crib);
+        if (plain.length == 0) {
+            throw error("empty crib");
+        }
+        if (offset < 0 || offset + plain.length > cipher.length) {
+            throw error("crib does not fit in the ciphertext");
+        }
+        _offset = offset;
+        _length = plain.length;
+        buildMenu(plain, cipher);
+
+        List<Rotor> library = machine.library();
+        _names = new String[library.size()];
+        int square = _size * _size;
+        _forward = new int[library.size() * square];
+        _backward = new int[library.size() * square];
+        _notches = new boolean[library.size() * _size];
+        for (int k = 0; k < library.size(); k++) {
+            Wiring wiring = library.get(k).wiring();
+            _names[k] = wiring.name();
+            System.arraycopy(wiring.forward(), 0, _forward, k * square,
+                             square);
+            System.arraycopy(wiring.backward(), 0, _backward, k * square,
+                             square);
+            for (int p = 0; p < _size; p++) {
+                _notches[k * _size + p] = wiring.notchAt(p);
+            }
+        }
+        _orders = new ArrayList<>();
+        arrange(library, new int[_numRotors], 0);
+    }
+
+    /** Return the number of possible settings to be tried: arrangements
+     *  of rotors times starting positions. */
+    long candidates() {
+        long count = _orders.size();
+        for (int i = 1; i < _numRotors; i++) {
+            count *= _size;
+        }
+        return count;
+    }
+
+    /** Return the number of candidates tried so far. */
+    long tried() {
+        return _tried.sum();
+    }
+
+    /** Run the search on POOL and return the stops, as setting lines
+     *  giving the rotors, positions and those plugboard pairs implied by
+     *  the menu.  Stops are ordered by arrangement, in the order of the
+     *  library, and then by position. */
+    List<String> run(ForkJoinPool pool) {
+        ArrayList<Callable<List<String>>> tasks = new ArrayList<>();
+        for (int[] order : _orders) {
+            for (int p = 0; p < _size; p++) {
+                int lead = p;
+                tasks.add(() -> new Searcher(order).search(lead));
+            }
+        }
+        ArrayList<String> stops = new ArrayList<>();
+        try {
+            for (Future<List<String>> result : pool.invokeAll(tasks)) {
+                stops.addAll(result.get());
+            }
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw error("crib search interrupted");
+        } catch (ExecutionException excp) {
+            if (excp.getCause() instanceof EnigmaException) {
+                throw (EnigmaException) excp.getCause();
+            }
+            throw new IllegalStateException(excp.getCause());
+        }
+        return stops;
+    }
+
+    /** Return the alphabet indices of the characters of TEXT, skipping
+     *  blanks. */
+    private int[] indices(String text) {
+        int[] result = new int[text.length()];
+        int len = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char ch = text.charAt(i);
+            if (ch != ' ') {
+                int c = _alphabet.toInt(ch);
+                if (c == Alphabet.UNKNOWN) {
+                    throw error("character %c not in alphabet", ch);
+                }
+                result[len++] = c;
+            }
+        }
+        return Arrays.copyOf(result, len);
+    }
+
+    /** Build the menu of PLAIN against CIPHER from _offset on: for each
+     *  step K, an edge from PLAIN[K] to the ciphertext letter, and its
+     *  reverse.  Edges are stored by source letter in _edgeStart. */
+    private void buildMenu(int[] plain, int[] cipher) {
+        int[] degree = new int[_size];
+        for (int k = 0; k < _length; k++) {
+            degree[plain[k]] += 1;
+            degree[cipher[_offset + k]] += 1;
+        }
+        _edgeStart = new int[_size + 1];
+        for (int c = 0; c < _size; c++) {
+            _edgeStart[c + 1] = _edgeStart[c] + degree[c];
+        }
+        _edgeTo = new int[2 * _length];
+        _edgeStep = new int[2 * _length];
+        _edgeForward = new boolean[2 * _length];
+        int[] fill = Arrays.copyOf(_edgeStart, _size);
+        for (int k = 0; k < _length; k++) {
+            int a = plain[k], b = cipher[_offset + k];
+            int e = fill[a]++;
+            _edgeTo[e] = b;
+            _edgeStep[e] = k;
+            _edgeForward[e] = true;
+            e = fill[b]++;
+            _edgeTo[e] = a;
+            _edgeStep[e] = k;
+            _edgeForward[e] = false;
+        }
+        int best = 0;
+        for (int c = 1; c < _size; c++) {
+            if (degree[c] > degree[best]) {
+                best = c;
+            }
+        }
+        _start = best;
+    }
+
+    /** Add to _orders every arrangement of distinct rotors from LIBRARY
+     *  that agrees with the library indices in ORDER before slot I: a
+     *  reflector, then non-moving rotors up to _folded, then moving
+     *  rotors. */
+    private void arrange(List<Rotor> library, int[] order, int i) {
+        if (i == _numRotors) {
+            _orders.add(order.clone());
+            return;
+        }
+        for (int k = 0; k < library.size(); k++) {
+            Rotor rotor = library.get(k);
+            boolean fits = i == 0 ? rotor.reflecting()
+                : !rotor.reflecting() && rotor.rotates() == (i >= _folded);
+            for (int j = 0; fits && j < i; j++) {
+                fits = order[j] != k;
+            }
+            if (fits) {
+                order[i] = k;
+                arrange(library, order, i + 1);
+            }
+        }
+    }
+
+    /** Tries the candidates of one arrangement of rotors, with its own
+     *  scratch state, so that Searchers may run concurrently. */
+    private class Searcher {
+
+        /** A Searcher for the arrangement ORDER of library indices. */
+        Searcher(int[] order) {
+            _order = order;
+            _setting = new int[_numRotors];
+            _turnaround = new int[_size];
+            _slow = new int[(_length + 1) * _size];
+            _slowInverse = new int[(_length + 1) * _size];
+            _slowKey = new long[_length + 1];
+            _slowOf = new int[_length];
+            _fastBase = new int[_length];
+            _plug = new int[_size];
+            Arrays.fill(_plug, -1);
+            _touched = new int[_size];
+            _queue = new int[_size];
+        }
+
+        /** Try every candidate whose slot 1 is at position LEAD, and
+         *  return the stops found. */
+        List<String> search(int lead) {
+            ArrayList<String> stops = new ArrayList<>();
+            int last = _numRotors - 1;
+            int[] start = new int[_numRotors];
+            start[1] = lead;
+            long count = 0;
+            _slowKey[0] = -1;
+            while (true) {
+                if (count == 0 || foldedChanged(start)) {
+                    fold(start);
+                }
+                count += 1;
+                prepare(start);
+                for (int h = 0; h < _size; h++) {
+                    clear();
+                    if (assign(_start, h) && propagate()) {
+                        report(start, stops);
+                    }
+                }
+                int i = last;
+                while (i > 1 && start[i] == _size - 1) {
+                    start[i] = 0;
+                    i -= 1;
+                }
+                if (i == 1) {
+                    break;
+                }
+                start[i] += 1;
+            }
+            _tried.add(count);
+            return stops;
+        }
+
+        /** Return true iff the non-moving slots of START differ from
+         *  those last folded. */
+        private boolean foldedChanged(int[] start) {
+            for (int i = 1; i < _folded; i++) {
+                if (start[i] != _setting[i]) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /** Compose the reflector and non-moving rotors, at the positions
+         *  in START, into _turnaround. */
+        private void fold(int[] start) {
+            int square = _size * _size;
+            for (int c = 0; c < _size; c++) {
+                int x = c;
+                for (int i = _folded - 1; i >= 0; i--) {
+                    x = _forward[_order[i] * square + start[i] * _size + x];
+                }
+                for (int i = 1; i < _folded; i++) {
+                    x = _backward[_order[i] * square + start[i] * _size + x];
+                }
+                _turnaround[c] = x;
+            }
+            System.arraycopy(start, 1, _setting, 1, _folded - 1);
+            _slowKey[0] = -1;
+        }
+
+        /** Step the moving rotors from START to the crib, recording the
+         *  scrambler at each crib step in _slowOf and _fastBase. */
+        private void prepare(int[] start) {
+            int square = _size * _size;
+            int last = _numRotors - 1;
+            int[] setting = _setting;
+            System.arraycopy(start, _folded, setting, _folded,
+                             _numRotors - _folded);
+            for (int k = 0; k < _offset; k++) {
+                step();
+            }
+            int used = 0;
+            for (int k = 0; k < _length; k++) {
+                step();
+                long key = 0;
+                for (int i = _folded; i < last; i++) {
+                    key = key * _size + setting[i];
+                }
+                if (used == 0 && _slowKey[0] == key) {
+                    used = 1;
+                } else if (used == 0 || _slowKey[used - 1] != key) {
+                    composeSlow(used);
+                    _slowKey[used] = key;
+                    used += 1;
+                }
+                _slowOf[k] = (used - 1) * _size;
+                _fastBase[k] = _order[last] * square + setting[last] * _size;
+            }
+        }
+
+        /** Advance the moving rotors in _setting by one keystroke. */
+        private void step() {
+            boolean carry = true;
+            for (int i = _numRotors - 1; i >= _folded; i--) {
+                boolean notch = i > _folded
+                    && _notches[_order[i] * _size + _setting[i]];
+                if (carry || notch) {
+                    int s = _setting[i] + 1;
+                    _setting[i] = s == _size ? 0 : s;
+                }
+                carry = notch;
+            }
+        }
+
+        /** Compose the moving rotors other than the fast rotor, at
+         *  _setting, around _turnaround into slow table number TABLE and
+         *  its inverse. */
+        private void composeSlow(int table) {
+            int square = _size * _size;
+            int last = _numRotors - 1;
+            int base = table * _size;
+            for (int c = 0; c < _size; c++) {
+                int x = c;
+                for (int i = last - 1; i >= _folded; i--) {
+                    x = _forward[_order[i] * square
+                                 + _setting[i] * _size + x];
+                }
+                x = _turnaround[x];
+                for (int i = _folded; i < last; i++) {
+                    x = _backward[_order[i] * square
+                                  + _setting[i] * _size + x];
+                }
+                _slow[base + c] = x;
+                _slowInverse[base + x] = c;
+            }
+        }
+
+        /** Return the scrambler at crib step K applied to X, or its
+         *  inverse unless FORWARD. */
+        private int scramble(int k, int x, boolean forward) {
+            int fast = _fastBase[k];
+            if (forward) {
+                return _backward[fast + _slow[_slowOf[k]
+                                               + _forward[fast + x]]];
+            }
+            return _backward[fast + _slowInverse[_slowOf[k]
+                                                 + _forward[fast + x]]];
+        }
+
+        /** Record that the plugboard exchanges A and B, returning false
+         *  if that contradicts what is already recorded. */
+        private boolean assign(int a, int b) {
+            if (_plug[a] == b) {
+                return true;
+            }
+            if (_plug[a] >= 0 || _plug[b] >= 0) {
+                return false;
+            }
+            _plug[a] = b;
+            _plug[b] = a;
+            _touched[_numTouched++] = a;
+            _queue[_queueEnd++] = a;
+            if (a != b) {
+                _touched[_numTouched++] = b;
+                _queue[_queueEnd++] = b;
+            }
+            return true;
+        }
+
+        /** Follow the menu from every queued letter, returning false on
+         *  the first contradiction. */
+        private boolean propagate() {
+            for (int q = 0; q < _queueEnd; q++) {
+                int a = _queue[q];
+                int y = _plug[a];
+                for (int e = _edgeStart[a]; e < _edgeStart[a + 1]; e++) {
+                    int v = scramble(_edgeStep[e], y, _edgeForward[e]);
+                    if (!assign(_edgeTo[e], v)) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        /** Forget all plugboard assignments. */
+        private void clear() {
+            for (int i = 0; i < _numTouched; i++) {
+                _plug[_touched[i]] = -1;
+            }
+            _numTouched = 0;
+            _queueEnd = 0;
+        }
+
+        /** Append to STOPS the setting line of the candidate at START
+         *  with the plugboard in _plug. */
+        private void report(int[] start, List<String> stops) {
+            StringBuilder line = new StringBuilder("*");
+            for (int i = 0; i < _numRotors; i++) {
+                line.append(' ').append(_names[_order[i]]);
+            }
+            line.append(' ');
+            for (int i = 1; i < _numRotors; i++) {
+                line.append(_alphabet.toChar(start[i]));
+            }
+            for (int c = 0; c < _size; c++) {
+                if (_plug[c] > c) {
+                    line.append(" (").append(_alphabet.toChar(c))
+                        .append(_alphabet.toChar(_plug[c])).append(')');
+                }
+            }
+            stops.add(line.toString());
+        }
+
+        /** Library indices of the rotors in each slot. */
+        private final int[] _order;
+
+        /** Current positions of the rotors.  Entries 1 to _folded-1 are
+         *  those folded into _turnaround. */
+        private final int[] _setting;
+
+        /** The reflector and non-moving rotors, composed. */
+        private final int[] _turnaround;
+
+        /** Slow tables: the middle rotors composed around _turnaround,
+         *  at each distinct setting of them met during the crib. */
+        private final int[] _slow;
+
+        /** Inverses of the slow tables. */
+        private final int[] _slowInverse;
+
+        /** The middle settings of each slow table, in radix _size, or
+         *  -1 if the table is not valid. */
+        private final long[] _slowKey;
+
+        /** Offset in _slow of the table used at each crib step. */
+        private final int[] _slowOf;
+
+        /** Offset in _forward of the fast rotor's row at each crib
+         *  step. */
+        private final int[] _fastBase;
+
+        /** Plugboard partner of each letter, or -1 if not yet known. */
+        private final int[] _plug;
+
+        /** Letters assigned partners in _plug. */
+        private final int[] _touched;
+
+        /** Number of letters in _touched. */
+        private int _numTouched;
+
+        /** Letters whose menu edges are to be followed. */
+        private final int[] _queue;
+
+        /** Number of letters added to _queue. */
+        private int _queueEnd;
+    }
+
+    /** The machine's alphabet. */
+    private final Alphabet _alphabet;
+
+    /** Size of _alphabet. */
+    private final int _size;
+
+    /** Number of rotor slots. */
+    private final int _numRotors;
+
+    /** Number of leading slots whose rotors do not move. */
+    private final int _folded;
+
+    /** Position in the ciphertext of the first crib character. */
+    private final int _offset;
+
+    /** Number of crib characters. */
+    private final int _length;
+
+    /** Menu edges from each letter C are numbered _edgeStart[C] to
+     *  _edgeStart[C + 1] - 1. */
+    private int[] _edgeStart;
+
+    /** Letter at the other end of each edge. */
+    private int[] _edgeTo;
+
+    /** Crib step of each edge. */
+    private int[] _edgeStep;
+
+    /** True for edges from a crib letter to a ciphertext letter, which
+     *  follow the scrambler rather than its inverse. */
+    private boolean[] _edgeForward;
+
+    /** The letter with the most menu edges, from which hypotheses are
+     *  propagated. */
+    private int _start;
+
+    /** Names of the library rotors. */
+    private final String[] _names;
+
+    /** Forward tables of the library rotors, as for Wiring.forward(),
+     *  one after another. */
+    private final int[] _forward;
+
+    /** Backward tables, laid out as _forward. */
+    private final int[] _backward;
+
+    /** True at each notch of each library rotor. */
+    private final boolean[] _notches;
+
+    /** The arrangements to try, as library indices for each slot. */
+    private final ArrayList<int[]> _orders;
+
+    /** Number of candidates tried. */
+    private final LongAdder _tried = new LongAdder();
+
+}
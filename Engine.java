@@ -0,0 +1,25 @@
+package enigma;
+
+/** A conversion engine specialized to one arrangement of rotors, as
+ *  generated by EngineCompiler.  An engine holds its own copy of the
+ *  rotor positions while it converts, loading them from a Machine
+ *  beforehand and storing them back afterwards.
+ *  @author Hanqi Xiong
+ */
+interface Engine {
+
+    /** Take my rotor positions, ring settings, plugboard and fixed
+     *  rotor settings from MACHINE, whose arrangement of rotors must be
+     *  the one I was generated for. */
+    void load(Machine machine);
+
+    /** Set the rotors of MACHINE to my rotor positions. */
+    void store(Machine machine);
+
+    /** Convert characters of SRC starting at SRCOFF into DST starting
+     *  at DSTOFF, as Machine.convert would, until LEN characters have
+     *  been converted or one not in the alphabet is reached.  Returns
+     *  the number converted. */
+    int convert(char[] src, int srcOff, char[] dst, int dstOff, int len);
+
+}
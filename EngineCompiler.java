@@ -0,0 +1,386 @@
+package enigma;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+import java.net.URI;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+
+/** Generates Engines specialized to a machine's arrangement of rotors.
+ *  The generated source has the rotor count, the kind of each rotor
+ *  and which pawls engage unrolled into straight-line stepping and
+ *  conversion code, with the rotors' tables held in static final fields;
+ *  it is compiled in memory and loaded as a hidden class that receives
+ *  the tables as its class data.  The most recently used classes are
+ *  cached by the content of what they were generated from (the alphabet
+ *  and the kinds, wirings and notches of the rotors), so machines with
+ *  the same rotors in the same order share one, even if their
+ *  configurations were read separately.
+ *  @author Hanqi Xiong
+ */
+final class EngineCompiler {
+
+    /** Not instantiable. */
+    private EngineCompiler() {
+    }
+
+    /** Return a new Engine for the rotors currently inserted in
+     *  MACHINE, or null if none can be generated (because there is no
+     *  Java compiler available, or the machine uses kinds of rotor that
+     *  are not understood here). */
+    static Engine compile(Machine machine) {
+        int last = machine.numRotors() - 1;
+        int slot = 1;
+        while (slot < last && !machine.getRotor(slot).rotates()) {
+            slot += 1;
+        }
+        int folded = slot;
+        for (int i = 0; i <= last; i++) {
+            Rotor rotor = machine.getRotor(i);
+            if (rotor == null || !KINDS.contains(rotor.getClass())) {
+                return null;
+            }
+        }
+        Arrangement key = new Arrangement(machine, folded);
+        Optional<MethodHandle> maker;
+        synchronized (ENGINES) {
+            maker = ENGINES.get(key);
+        }
+        if (maker == null) {
+            maker = generate(machine, folded);
+            synchronized (ENGINES) {
+                Optional<MethodHandle> other = ENGINES.putIfAbsent(key, maker);
+                if (other != null) {
+                    maker = other;
+                }
+            }
+        }
+        if (maker.isEmpty()) {
+            return null;
+        }
+        try {
+            return (Engine) maker.get().invoke();
+        } catch (Throwable excp) {
+            throw new IllegalStateException(excp);
+        }
+    }
+
+    /** Return the constructor of a new Engine class for the rotors of
+     *  MACHINE, where those in slots below FOLDED have been folded into
+     *  the machine's turnaround table, or nothing if it cannot be
+     *  compiled. */
+    private static Optional<MethodHandle> generate(Machine machine,
+                                                   int folded) {
+        JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+        if (javac == null) {
+            return Optional.empty();
+        }
+        ArrayList<Object> data = new ArrayList<>();
+        String source = source(machine, folded, data);
+        ClassOutput output = new ClassOutput(
+            javac.getStandardFileManager(null, null, null));
+        List<String> options =
+            Arrays.asList("-classpath", System.getProperty("java.class.path"),
+                          "-proc:none", "-nowarn");
+        JavaFileObject input =
+            new SimpleJavaFileObject(URI.create("string:///enigma/"
+                                                + CLASS_NAME + ".java"),
+                                     JavaFileObject.Kind.SOURCE) {
+                @Override
+                public CharSequence getCharContent(boolean ignoreErrors) {
+                    return source;
+                }
+            };
+        if (!javac.getTask(Writer.nullWriter(), output, null,
+                           options, null, List.of(input)).call()) {
+            return Optional.empty();
+        }
+        try {
+            MethodHandles.Lookup engine = MethodHandles.lookup()
+                .defineHiddenClassWithClassData(output.bytes(),
+                                                data.toArray(), true);
+            return Optional.of(engine.findConstructor(
+                engine.lookupClass(), MethodType.methodType(void.class))
+                .asType(MethodType.methodType(Engine.class)));
+        } catch (IllegalAccessException | NoSuchMethodException excp) {
+            return Optional.empty();
+        }
+    }
+
+    /** Return the source of an Engine for the rotors of MACHINE, where
+     *  those in slots below FOLDED have been folded into the machine's
+     *  turnaround table, adding the objects to be supplied as its class
+     *  data to DATA. */
+    private static String source(Machine machine, int folded,
+                                 List<Object> data) {
+        int last = machine.numRotors() - 1;
+        int size = machine.alphabet().size();
+        StringBuilder fields = new StringBuilder();
+        StringBuilder load = new StringBuilder();
+        StringBuilder store = new StringBuilder();
+        StringBuilder step = new StringBuilder();
+        StringBuilder forward = new StringBuilder();
+        StringBuilder backward = new StringBuilder();
+        StringBuilder locals = new StringBuilder();
+        StringBuilder save = new StringBuilder();
+        data.add(machine.alphabet());
+        for (int i = folded; i <= last; i++) {
+            Rotor rotor = machine.getRotor(i);
+            Wiring wiring = rotor.wiring();
+            int tables = data.size();
+            data.add(wiring.forward());
+            data.add(wiring.backward());
+            line(fields, 1, "private static final int[] F%d = (int[]) "
+                 + "DATA[%d];", i, tables);
+            line(fields, 1, "private static final int[] B%d = (int[]) "
+                 + "DATA[%d];", i, tables + 1);
+            line(fields, 1, "private int _b%d;", i);
+            line(load, 2, "_b%d = Math.floorMod(m.getRotor(%d).setting() "
+                 + "- m.getRotor(%d).ring(), N) * N;", i, i, i);
+            line(locals, 2, "int b%d = _b%d;", i, i);
+            line(save, 2, "_b%d = b%d;", i, i);
+            forward.insert(0, String.format("            c = F%d[b%d + c];%n",
+                                            i, i));
+            line(backward, 3, "c = B%d[b%d + c];", i, i);
+            if (rotor.rotates()) {
+                line(fields, 1, "private int _s%d;", i);
+                line(load, 2, "_s%d = m.getRotor(%d).setting();", i, i);
+                line(store, 2, "m.getRotor(%d).set(_s%d);", i, i);
+                line(locals, 2, "int s%d = _s%d;", i, i);
+                line(save, 2, "_s%d = s%d;", i, i);
+            }
+            if (pawl(machine, i)) {
+                boolean[] notches = new boolean[size];
+                for (int p = 0; p < size; p++) {
+                    notches[p] = wiring.notchAt(p);
+                }
+                line(fields, 1, "private static final boolean[] K%d = "
+                     + "(boolean[]) DATA[%d];", i, data.size());
+                data.add(notches);
+                line(step, 3, "boolean k%d = K%d[s%d];", i, i, i);
+            }
+        }
+        for (int i = last; i >= folded; i--) {
+            if (!machine.getRotor(i).rotates()) {
+                continue;
+            }
+            ArrayList<String> why = new ArrayList<>();
+            if (i == last) {
+                why.add("true");
+            }
+            if (i < last && pawl(machine, i + 1)) {
+                why.add("k" + (i + 1));
+            }
+            if (pawl(machine, i)) {
+                why.add("k" + i);
+            }
+            if (why.isEmpty()) {
+                continue;
+            }
+            line(step, 3, "if (%s) {", String.join(" || ", why));
+            line(step, 4, "s%d = s%d == N - 1 ? 0 : s%d + 1;", i, i, i);
+            line(step, 4, "b%d = b%d == NN - N ? 0 : b%d + N;", i, i, i);
+            line(step, 3, "}");
+        }
+        StringBuilder out = new StringBuilder();
+        line(out, 0, "package enigma;");
+        line(out, 0, "");
+        line(out, 0, "import java.lang.invoke.MethodHandles;");
+        line(out, 0, "");
+        line(out, 0, "final class %s implements Engine {", CLASS_NAME);
+        line(out, 1, "private static final Object[] DATA = data();");
+        line(out, 1, "private static final int N = %d;", size);
+        line(out, 1, "private static final int NN = %d;", size * size);
+        line(out, 1, "private static final Alphabet ALPHABET = "
+             + "(Alphabet) DATA[0];");
+        out.append(fields);
+        line(out, 1, "private int[] _plug;");
+        line(out, 1, "private int[] _turn;");
+        line(out, 1, "private static Object[] data() {");
+        line(out, 2, "try {");
+        line(out, 3, "return MethodHandles.classData(MethodHandles.lookup(),"
+             + " \"_\", Object[].class);");
+        line(out, 2, "} catch (IllegalAccessException excp) {");
+        line(out, 3, "throw new ExceptionInInitializerError(excp);");
+        line(out, 2, "}");
+        line(out, 1, "}");
+        line(out, 1, "public void load(Machine m) {");
+        out.append(load);
+        line(out, 2, "_plug = m.plugboard().forward();");
+        line(out, 2, "_turn = m.turnaround();");
+        line(out, 1, "}");
+        line(out, 1, "public void store(Machine m) {");
+        out.append(store);
+        line(out, 1, "}");
+        line(out, 1, "public int convert(char[] src, int srcOff, char[] dst,"
+             + " int dstOff, int len) {");
+        line(out, 2, "Alphabet alphabet = ALPHABET;");
+        line(out, 2, "int[] plug = _plug;");
+        line(out, 2, "int[] turn = _turn;");
+        out.append(locals);
+        line(out, 2, "int i = 0;");
+        line(out, 2, "for (; i < len; i++) {");
+        line(out, 3, "int c = alphabet.toInt(src[srcOff + i]);");
+        line(out, 3, "if (c < 0) {");
+        line(out, 4, "break;");
+        line(out, 3, "}");
+        out.append(step);
+        line(out, 3, "c = plug[c];");
+        out.append(forward);
+        line(out, 3, "c = turn[c];");
+        out.append(backward);
+        line(out, 3, "dst[dstOff + i] = alphabet.toChar(plug[c]);");
+        line(out, 2, "}");
+        out.append(save);
+        line(out, 2, "return i;");
+        line(out, 1, "}");
+        line(out, 0, "}");
+        return out.toString();
+    }
+
+    /** Return true iff the rotor in slot I of MACHINE can, at one of
+     *  its notches, advance both itself and the rotor to its left. */
+    private static boolean pawl(Machine machine, int i) {
+        Rotor rotor = machine.getRotor(i);
+        return i > 0 && machine.getRotor(i - 1).rotates() && rotor.rotates()
+            && rotor.wiring().notchCount() > 0;
+    }
+
+    /** Append to OUT the line formatted from FORMAT and ARGS, indented
+     *  by DEPTH levels. */
+    private static void line(StringBuilder out, int depth, String format,
+                             Object... args) {
+        out.append("    ".repeat(depth)).append(String.format(format, args))
+            .append(System.lineSeparator());
+    }
+
+    /** The content of a machine from which an Engine is generated,
+     *  compared by value. */
+    private static final class Arrangement {
+
+        /** The arrangement of the rotors of MACHINE from slot FOLDED
+         *  on. */
+        Arrangement(Machine machine, int folded) {
+            Alphabet alphabet = machine.alphabet();
+            int size = alphabet.size();
+            int numRotors = machine.numRotors();
+            _content =
+                new int[3 + size + (numRotors - folded) * (1 + 2 * size)];
+            int k = 0;
+            _content[k++] = folded;
+            _content[k++] = numRotors;
+            _content[k++] = size;
+            for (int c = 0; c < size; c++) {
+                _content[k++] = alphabet.toChar(c);
+            }
+            for (int i = folded; i < numRotors; i++) {
+                Rotor rotor = machine.getRotor(i);
+                Wiring wiring = rotor.wiring();
+                _content[k++] = rotor.rotates() ? 1 : 0;
+                for (int p = 0; p < size; p++) {
+                    _content[k++] = wiring.permutation().permute(p);
+                    _content[k++] = wiring.notchAt(p) ? 1 : 0;
+                }
+            }
+            _hash = Arrays.hashCode(_content);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Arrangement
+                && Arrays.equals(((Arrangement) obj)._content, _content);
+        }
+
+        @Override
+        public int hashCode() {
+            return _hash;
+        }
+
+        /** The slot folded from, the numbers of rotors and characters,
+         *  the alphabet, and for each rotor from slot _folded on, whether
+         *  it rotates and then its permutation and notches, interleaved. */
+        private final int[] _content;
+
+        /** Hash of _content. */
+        private final int _hash;
+    }
+
+    /** A file manager that keeps the single class file produced by a
+     *  compilation in memory. */
+    private static class ClassOutput
+        extends ForwardingJavaFileManager<JavaFileManager> {
+
+        /** A file manager delegating all but output to FILES. */
+        ClassOutput(JavaFileManager files) {
+            super(files);
+        }
+
+        @Override
+        public JavaFileObject getJavaFileForOutput(Location location,
+                                                   String className,
+                                                   JavaFileObject.Kind kind,
+                                                   FileObject sibling) {
+            return new SimpleJavaFileObject(
+                URI.create("bytes:///" + className.replace('.', '/')
+                           + kind.extension), kind) {
+                @Override
+                public OutputStream openOutputStream() {
+                    return _bytes;
+                }
+            };
+        }
+
+        /** Return the bytes of the class file written. */
+        byte[] bytes() {
+            return _bytes.toByteArray();
+        }
+
+        /** The class file written. */
+        private final ByteArrayOutputStream _bytes =
+            new ByteArrayOutputStream();
+    }
+
+    /** Name of the generated classes. */
+    private static final String CLASS_NAME = "SpecializedEngine";
+
+    /** The kinds of rotor whose behavior the generated code reproduces. */
+    private static final List<Class<?>> KINDS =
+        List.of(Rotor.class, MovingRotor.class, FixedRotor.class,
+                Reflector.class);
+
+    /** Most Engine classes kept in ENGINES. */
+    private static final int ENGINE_CACHE_SIZE = 64;
+
+    /** Engine constructors of recently used arrangements of rotors,
+     *  least recently used first.  Guarded by itself; classes are
+     *  generated outside the lock.  An evicted class is unloaded once
+     *  the last Engine made from it is gone. */
+    private static final LinkedHashMap<Arrangement, Optional<MethodHandle>>
+        ENGINES = new LinkedHashMap<>(ENGINE_CACHE_SIZE, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<Arrangement, Optional<MethodHandle>> eldest) {
+                return size() > ENGINE_CACHE_SIZE;
+            }
+        };
+
+}
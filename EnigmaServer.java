@@ -0,0 +1,318 @@
+package enigma;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/** A server converting text for any number of concurrent clients on a
+ *  local socket, TCP or Unix domain, from a single thread using a
+ *  Selector.  Each connection is a session with its own copy of a
+ *  prototype Machine, sharing its rotor library, so the configuration
+ *  is read once for all of them.  Clients send lines of UTF-8 text,
+ *  ending in a newline, and receive one line for each:  a setting line
+ *  (starting with "*") sets up the session's machine and is answered
+ *  with "OK"; any other line is converted, continuing from the
+ *  session's rotor positions, and answered in groups of five, as by
+ *  Main.  A line that cannot be handled is answered with "ERROR "
+ *  followed by the reason, and the session continues.  Clients may send
+ *  many lines before reading the answers.
+ *  @author Hanqi Xiong
+ */
+class EnigmaServer implements Closeable {
+
+    /** A server listening at ADDRESS (a UnixDomainSocketAddress or an
+     *  InetSocketAddress), whose sessions convert with copies of
+     *  PROTOTYPE and set them up with SETTER, which is given each
+     *  session's machine and setting line. */
+    EnigmaServer(Machine prototype, BiConsumer<Machine, String> setter,
+                 SocketAddress address) throws IOException {
+        _prototype = prototype;
+        _setter = setter;
+        _selector = Selector.open();
+        if (address instanceof UnixDomainSocketAddress) {
+            _socketPath = ((UnixDomainSocketAddress) address).getPath();
+            Files.deleteIfExists(_socketPath);
+            _server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        } else {
+            _socketPath = null;
+            _server = ServerSocketChannel.open();
+        }
+        _server.bind(address, BACKLOG);
+        _server.configureBlocking(false);
+        _acceptKey = _server.register(_selector, SelectionKey.OP_ACCEPT);
+    }
+
+    /** Return the address I am listening at, with the port chosen if
+     *  the one requested was 0. */
+    SocketAddress address() throws IOException {
+        return _server.getLocalAddress();
+    }
+
+    /** Serve clients until close() is called. */
+    void run() throws IOException {
+        while (!_closed) {
+            long wait = 0;
+            if (_acceptKey.interestOps() == 0) {
+                wait = TimeUnit.NANOSECONDS.toMillis(_resumeAccept
+                                                     - System.nanoTime());
+                if (wait <= 0) {
+                    _acceptKey.interestOps(SelectionKey.OP_ACCEPT);
+                    wait = 0;
+                }
+            }
+            _selector.select(wait);
+            Iterator<SelectionKey> keys = _selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                if (!key.isValid()) {
+                    continue;
+                }
+                if (key.isAcceptable()) {
+                    accept();
+                    continue;
+                }
+                Session session = (Session) key.attachment();
+                try {
+                    if (key.isWritable()) {
+                        session.write();
+                    }
+                    if (key.isValid() && key.isReadable()) {
+                        session.read();
+                    }
+                } catch (IOException excp) {
+                    session.close();
+                }
+            }
+        }
+        for (SelectionKey key : _selector.keys()) {
+            key.channel().close();
+        }
+        _selector.close();
+        if (_socketPath != null) {
+            Files.deleteIfExists(_socketPath);
+        }
+    }
+
+    /** Stop serving.  run() returns once it has closed all
+     *  connections. */
+    @Override
+    public void close() {
+        _closed = true;
+        _selector.wakeup();
+    }
+
+    /** Return the number of sessions opened so far. */
+    long sessions() {
+        return _sessions;
+    }
+
+    /** Accept any pending connections.  A connection that cannot be
+     *  accepted or set up (for example, because no file descriptors are
+     *  left) is closed, and the server stops accepting for ACCEPT_PAUSE
+     *  while going on serving the others. */
+    private void accept() {
+        while (true) {
+            SocketChannel channel = null;
+            try {
+                channel = _server.accept();
+                if (channel == null) {
+                    return;
+                }
+                channel.configureBlocking(false);
+                SelectionKey key = channel.register(_selector,
+                                                    SelectionKey.OP_READ);
+                key.attach(new Session(channel, key));
+                _sessions += 1;
+            } catch (IOException excp) {
+                if (channel != null) {
+                    try {
+                        channel.close();
+                    } catch (IOException ignored) {
+                        /* Ignore: the connection is abandoned. */
+                    }
+                }
+                _acceptKey.interestOps(0);
+                _resumeAccept = System.nanoTime() + ACCEPT_PAUSE;
+                return;
+            }
+        }
+    }
+
+    /** The state of one connection. */
+    private class Session {
+
+        /** A session on CHANNEL, registered as KEY. */
+        Session(SocketChannel channel, SelectionKey key) {
+            _channel = channel;
+            _key = key;
+            _machine = new Machine(_prototype);
+        }
+
+        /** Read what is available and answer each complete line. */
+        void read() throws IOException {
+            int n = _channel.read(_in);
+            if (n < 0) {
+                close();
+                return;
+            }
+            _in.flip();
+            byte[] bytes = _in.array();
+            int start = _in.position();
+            for (int i = start; i < _in.limit(); i++) {
+                if (bytes[i] == '\n') {
+                    int end = i > start && bytes[i - 1] == '\r' ? i - 1 : i;
+                    answer(new String(bytes, start, end - start,
+                                      StandardCharsets.UTF_8));
+                    start = i + 1;
+                }
+            }
+            _in.position(start);
+            _in.compact();
+            if (!_in.hasRemaining()) {
+                if (_in.capacity() >= MAX_LINE) {
+                    close();
+                    return;
+                }
+                ByteBuffer bigger = ByteBuffer.allocate(2 * _in.capacity());
+                _in.flip();
+                bigger.put(_in);
+                _in = bigger;
+            }
+            write();
+        }
+
+        /** Queue the answer to the request LINE. */
+        private void answer(String line) {
+            _reply.setLength(0);
+            try {
+                if (line.startsWith("*")) {
+                    _setter.accept(_machine, line);
+                    _reply.append("OK\n");
+                } else {
+                    String msg = _machine.convert(line);
+                    if (msg.isEmpty()) {
+                        _reply.append('\n');
+                    } else {
+                        Main.formatMessageLine(msg, _reply);
+                    }
+                }
+            } catch (RuntimeException excp) {
+                _reply.setLength(0);
+                _reply.append("ERROR ").append(excp.getMessage())
+                    .append('\n');
+            }
+            byte[] bytes = _reply.toString().getBytes(StandardCharsets.UTF_8);
+            if (_out.remaining() < bytes.length) {
+                ByteBuffer bigger = ByteBuffer.allocate(
+                    Math.max(2 * _out.capacity(),
+                             _out.position() + bytes.length));
+                _out.flip();
+                bigger.put(_out);
+                _out = bigger;
+            }
+            _out.put(bytes);
+        }
+
+        /** Send as much of the queued output as the channel accepts,
+         *  and stop reading until the rest has been sent. */
+        void write() throws IOException {
+            _out.flip();
+            _channel.write(_out);
+            _out.compact();
+            if (_out.position() > 0) {
+                _key.interestOps(SelectionKey.OP_WRITE);
+            } else {
+                _key.interestOps(SelectionKey.OP_READ);
+                if (_out.capacity() > BUFFER_SIZE) {
+                    _out = ByteBuffer.allocate(BUFFER_SIZE);
+                }
+            }
+        }
+
+        /** End the session. */
+        void close() {
+            _key.cancel();
+            try {
+                _channel.close();
+            } catch (IOException excp) {
+                /* Ignore: the session is over. */
+            }
+        }
+
+        /** The connection. */
+        private final SocketChannel _channel;
+
+        /** Its registration with _selector. */
+        private final SelectionKey _key;
+
+        /** This session's machine. */
+        private final Machine _machine;
+
+        /** Bytes received but not yet part of a complete line. */
+        private ByteBuffer _in = ByteBuffer.allocate(BUFFER_SIZE);
+
+        /** Bytes of answers not yet sent. */
+        private ByteBuffer _out = ByteBuffer.allocate(BUFFER_SIZE);
+
+        /** The answer being built. */
+        private final StringBuilder _reply = new StringBuilder();
+    }
+
+    /** Initial size of each session's buffers. */
+    private static final int BUFFER_SIZE = 1 << 13;
+
+    /** Longest request line accepted; longer ones end the session. */
+    private static final int MAX_LINE = 1 << 24;
+
+    /** Connections that may wait to be accepted. */
+    private static final int BACKLOG = 1024;
+
+    /** Nanoseconds for which accepting stops after a failure, so that a
+     *  lasting one (such as running out of file descriptors) does not
+     *  keep the selector spinning. */
+    private static final long ACCEPT_PAUSE = TimeUnit.MILLISECONDS.toNanos(100);
+
+    /** Machine copied by each session. */
+    private final Machine _prototype;
+
+    /** Sets up a session's machine from a setting line. */
+    private final BiConsumer<Machine, String> _setter;
+
+    /** Selects the channels ready for service. */
+    private final Selector _selector;
+
+    /** The listening channel. */
+    private final ServerSocketChannel _server;
+
+    /** Registration of _server with _selector, whose interest is cleared
+     *  while accepting is paused. */
+    private final SelectionKey _acceptKey;
+
+    /** System.nanoTime() at which accepting resumes, if it is paused. */
+    private long _resumeAccept;
+
+    /** Path of the Unix domain socket, removed when I stop, or null. */
+    private final Path _socketPath;
+
+    /** Number of sessions opened. */
+    private volatile long _sessions;
+
+    /** True once close() is called. */
+    private volatile boolean _closed;
+
+}
@@ -13,4 +13,14 @@ class FixedRotor extends Rotor {
         super(name, perm);
     }
 
+    /** A copy of ORIGINAL, as for Rotor(Rotor). */
+    FixedRotor(FixedRotor original) {
+        super(original);
+    }
+
+    @Override
+    Rotor copy() {
+        return new FixedRotor(this);
+    }
+
 }
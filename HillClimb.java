@@ -0,0 +1,537 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+
+import static enigma.EnigmaException.*;
+
+/** A ciphertext-only solver that searches for the rotor positions,
+ *  rings and plugboard of a machine whose rotors are known by hill
+ *  climbing.  Each restart begins from random positions and rings and
+ *  an empty plugboard.  The positions and rings are first climbed, one
+ *  slot at a time, to maximize the index of coincidence of the
+ *  decryption; the plugboard is then climbed a pair at a time to
+ *  maximize its n-gram score (see NgramTable), and both are climbed
+ *  again with the n-gram score.  Decryption uses the rotors' Wiring
+ *  tables on primitive state, and plugboard changes are scored by
+ *  rescoring only the n-grams whose characters they change.  Restarts
+ *  run concurrently on a pool, each with its own scratch state.
+ *  @author Hanqi Xiong
+ */
+class HillClimb {
+
+    /** A solver for CIPHERTEXT, ignoring blanks, as converted by a
+     *  machine with the rotors inserted in MACHINE, scored by NGRAMS. */
+    HillClimb(Machine machine, String ciphertext, NgramTable ngrams) {
+        _alphabet = machine.alphabet();
+        _size = _alphabet.size();
+        _numRotors = machine.numRotors();
+        ngrams.check(_alphabet);
+        _ngrams = ngrams;
+        _order = ngrams.order();
+        if (machine.getRotor(0) == null) {
+            throw error("the solver needs rotors inserted");
+        }
+        _names = new String[_numRotors];
+        _forward = new int[_numRotors][];
+        _backward = new int[_numRotors][];
+        _wirings = new Wiring[_numRotors];
+        _rotates = new boolean[_numRotors];
+        _engages = new boolean[_numRotors];
+        for (int i = 0; i < _numRotors; i++) {
+            Rotor rotor = machine.getRotor(i);
+            _wirings[i] = rotor.wiring();
+            _names[i] = rotor.name();
+            _forward[i] = rotor.wiring().forward();
+            _backward[i] = rotor.wiring().backward();
+            _rotates[i] = rotor.rotates();
+            _engages[i] = i > 0 && _rotates[i] && _rotates[i - 1];
+        }
+        char[] chars = ciphertext.replace(" ", "").toCharArray();
+        _cipher = new int[chars.length];
+        for (int k = 0; k < chars.length; k++) {
+            _cipher[k] = _alphabet.toInt(chars[k]);
+            if (_cipher[k] == Alphabet.UNKNOWN) {
+                throw error("character %c not in alphabet", chars[k]);
+            }
+        }
+        if (_cipher.length < _order) {
+            throw error("ciphertext is shorter than an n-gram");
+        }
+        _maxPairs = Math.min(MAX_PAIRS, _size / 2);
+    }
+
+    /** Run RESTARTS restarts on POOL, restart I drawing its starting
+     *  point from a Random seeded with SEED + I, and return the best
+     *  setting line found, with rings and plugboard pairs.  The result
+     *  does not depend on the scheduling of the restarts.  Each call
+     *  starts afresh, forgetting the results and counts of earlier
+     *  ones; calls may not overlap. */
+    String run(ForkJoinPool pool, int restarts, long seed) {
+        synchronized (this) {
+            _best = null;
+            _bestScore = 0;
+            _bestRestart = 0;
+        }
+        _done.reset();
+        _evaluations.reset();
+        _restarts = restarts;
+        ArrayList<Callable<Void>> tasks = new ArrayList<>();
+        for (int i = 0; i < restarts; i++) {
+            int restart = i;
+            tasks.add(() -> {
+                new Climber().climb(restart, seed + restart);
+                return null;
+            });
+        }
+        try {
+            for (Future<Void> result : pool.invokeAll(tasks)) {
+                result.get();
+            }
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw error("solver interrupted");
+        } catch (ExecutionException excp) {
+            if (excp.getCause() instanceof EnigmaException) {
+                throw (EnigmaException) excp.getCause();
+            }
+            throw new IllegalStateException(excp.getCause());
+        }
+        return best();
+    }
+
+    /** Return the number of restarts requested of the current run. */
+    int restarts() {
+        return _restarts;
+    }
+
+    /** Return the number of restarts of the current run completed. */
+    long restartsDone() {
+        return _done.sum();
+    }
+
+    /** Return the number of candidate settings scored so far in the
+     *  current run. */
+    long evaluations() {
+        return _evaluations.sum();
+    }
+
+    /** Return the best n-gram score so far, as a log10 probability, or
+     *  negative infinity if no restart has finished. */
+    synchronized double bestScore() {
+        return _best == null ? Double.NEGATIVE_INFINITY
+            : _bestScore / (double) _ngrams.scale();
+    }
+
+    /** Return the best setting line so far, or null if no restart has
+     *  finished. */
+    synchronized String best() {
+        return _best;
+    }
+
+    /** Record that restart number RESTART ended with setting line LINE
+     *  scoring SCORE.  Ties go to the lower-numbered restart. */
+    private synchronized void offer(long score, int restart, String line) {
+        if (_best == null || score > _bestScore
+            || score == _bestScore && restart < _bestRestart) {
+            _best = line;
+            _bestScore = score;
+            _bestRestart = restart;
+        }
+    }
+
+    /** The state of one restart. */
+    private class Climber {
+
+        /** Climb from the starting point drawn from a Random seeded with
+         *  SEED and offer the result as restart number RESTART. */
+        void climb(int restart, long seed) {
+            Random random = new Random(seed);
+            for (int i = 1; i < _numRotors; i++) {
+                _position[i] = random.nextInt(_size);
+                _ring[i] = _rotates[i] ? random.nextInt(_size) : 0;
+            }
+            for (int c = 0; c < _size; c++) {
+                _plug[c] = c;
+            }
+            _pairs = 0;
+            climbRotors(false);
+            fillKeystream();
+            long score = climbPlugs(ngramScore(_plain));
+            climbRotors(true);
+            fillKeystream();
+            score = climbPlugs(ngramScore(_plain));
+            _done.increment();
+            offer(score, restart, line());
+        }
+
+        /** Climb the position of each rotor, and the ring of each moving
+         *  rotor, through every value, until none improves the n-gram
+         *  score if NGRAM, and otherwise the index of coincidence.  When
+         *  NGRAM, also try moving both together, which keeps the wiring in
+         *  place and moves only the notches. */
+        private void climbRotors(boolean ngram) {
+            long best = rotorScore(ngram);
+            boolean improved = true;
+            while (improved) {
+                improved = false;
+                for (int i = 1; i < _numRotors; i++) {
+                    int moves = !_rotates[i] ? 1 : ngram ? 3 : 2;
+                    for (int move = 0; move < moves; move++) {
+                        int position = _position[i], ring = _ring[i];
+                        int shift = 0;
+                        for (int d = 1; d < _size; d++) {
+                            setSlot(i, move, position, ring, d);
+                            long score = rotorScore(ngram);
+                            if (score > best) {
+                                best = score;
+                                shift = d;
+                                improved = true;
+                            }
+                        }
+                        setSlot(i, move, position, ring, shift);
+                    }
+                }
+                flush();
+            }
+        }
+
+        /** Set slot I to POSITION and RING, with the position (if MOVE is
+         *  0), the ring (if MOVE is 1) or both (if MOVE is 2) advanced by
+         *  D. */
+        private void setSlot(int i, int move, int position, int ring,
+                             int d) {
+            _position[i] = move == 1 ? position : (position + d) % _size;
+            _ring[i] = move == 0 ? ring : (ring + d) % _size;
+        }
+
+        /** Decrypt the ciphertext into _plain from the current positions,
+         *  rings and plugboard, and return its n-gram score if NGRAM,
+         *  and otherwise its index of coincidence (unnormalized). */
+        private long rotorScore(boolean ngram) {
+            _count += 1;
+            System.arraycopy(_position, 0, _setting, 0, _numRotors);
+            for (int k = 0; k < _cipher.length; k++) {
+                step();
+                _plain[k] = _plug[scramble(_plug[_cipher[k]])];
+            }
+            if (ngram) {
+                return ngramScore(_plain);
+            }
+            int[] counts = _counts;
+            for (int c = 0; c < _size; c++) {
+                counts[c] = 0;
+            }
+            for (int k = 0; k < _cipher.length; k++) {
+                counts[_plain[k]] += 1;
+            }
+            long sum = 0;
+            for (int c = 0; c < _size; c++) {
+                sum += (long) counts[c] * (counts[c] - 1);
+            }
+            return sum;
+        }
+
+        /** Fill _keystream with the scrambler at each step from the
+         *  current positions and rings, and _plain and _trial with the
+         *  decryption under the current plugboard. */
+        private void fillKeystream() {
+            System.arraycopy(_position, 0, _setting, 0, _numRotors);
+            for (int k = 0; k < _cipher.length; k++) {
+                step();
+                int row = k * _size;
+                for (int c = 0; c < _size; c++) {
+                    _keystream[row + c] = scramble(c);
+                }
+                _plain[k] = _plug[_keystream[row + _plug[_cipher[k]]]];
+            }
+            System.arraycopy(_plain, 0, _trial, 0, _cipher.length);
+        }
+
+        /** Climb the plugboard from one scoring SCORE, trying for each
+         *  pair of characters to connect them (disconnecting their
+         *  partners) or, if connected, to disconnect them, until no
+         *  such change improves the n-gram score.  Returns the score
+         *  reached. */
+        private long climbPlugs(long score) {
+            boolean improved = true;
+            while (improved) {
+                improved = false;
+                for (int a = 0; a < _size; a++) {
+                    for (int b = a + 1; b < _size; b++) {
+                        int pa = _plug[a], pb = _plug[b];
+                        int pairs = _pairs;
+                        if (pa == b) {
+                            _plug[a] = a;
+                            _plug[b] = b;
+                            pairs -= 1;
+                        } else {
+                            if (pa != a) {
+                                _plug[pa] = pa;
+                                pairs -= 1;
+                            }
+                            if (pb != b) {
+                                _plug[pb] = pb;
+                                pairs -= 1;
+                            }
+                            _plug[a] = b;
+                            _plug[b] = a;
+                            pairs += 1;
+                        }
+                        long delta = pairs > _maxPairs ? 0 : trialDelta();
+                        if (delta > 0) {
+                            commit(true);
+                            score += delta;
+                            _pairs = pairs;
+                            improved = true;
+                        } else {
+                            commit(false);
+                            _plug[a] = pa;
+                            _plug[b] = pb;
+                            _plug[pa] = a;
+                            _plug[pb] = b;
+                        }
+                    }
+                }
+                flush();
+            }
+            return score;
+        }
+
+        /** Add the candidates scored since the last call to
+         *  _evaluations. */
+        private void flush() {
+            _evaluations.add(_count);
+            _count = 0;
+        }
+
+        /** Decrypt into _trial under the current plugboard, noting in
+         *  _changed the steps that differ from _plain, and return the
+         *  change in n-gram score from _plain to _trial. */
+        private long trialDelta() {
+            _count += 1;
+            int n = _cipher.length;
+            _numChanged = 0;
+            for (int k = 0; k < n; k++) {
+                int p = _plug[_keystream[k * _size + _plug[_cipher[k]]]];
+                if (p != _plain[k]) {
+                    _trial[k] = p;
+                    _changed[_numChanged++] = k;
+                }
+            }
+            _stamp += 1;
+            long delta = 0;
+            int lastStart = n - _order;
+            for (int m = 0; m < _numChanged; m++) {
+                int k = _changed[m];
+                for (int j = Math.max(0, k - _order + 1);
+                     j <= Math.min(k, lastStart); j++) {
+                    if (_stamps[j] != _stamp) {
+                        _stamps[j] = _stamp;
+                        delta += ngram(_trial, j) - ngram(_plain, j);
+                    }
+                }
+            }
+            return delta;
+        }
+
+        /** Make _plain agree with _trial at the changed steps if KEEP,
+         *  and otherwise restore _trial from _plain there. */
+        private void commit(boolean keep) {
+            for (int m = 0; m < _numChanged; m++) {
+                int k = _changed[m];
+                if (keep) {
+                    _plain[k] = _trial[k];
+                } else {
+                    _trial[k] = _plain[k];
+                }
+            }
+            _numChanged = 0;
+        }
+
+        /** Return the n-gram score of TEXT. */
+        private long ngramScore(int[] text) {
+            long score = 0;
+            for (int j = 0; j + _order <= _cipher.length; j++) {
+                score += ngram(text, j);
+            }
+            return score;
+        }
+
+        /** Return the score of the n-gram of TEXT starting at J. */
+        private int ngram(int[] text, int j) {
+            int index = 0;
+            for (int i = 0; i < _order; i++) {
+                index = index * _size + text[j + i];
+            }
+            return _ngrams.score(index);
+        }
+
+        /** Advance _setting by one keystroke, as Machine does. */
+        private void step() {
+            boolean carry = true;
+            for (int i = _numRotors - 1; i > 0; i--) {
+                boolean notch =
+                    _engages[i] && _wirings[i].notchAt(_setting[i]);
+                if ((carry || notch) && _rotates[i]) {
+                    int s = _setting[i] + 1;
+                    _setting[i] = s == _size ? 0 : s;
+                }
+                carry = notch;
+            }
+        }
+
+        /** Return C converted by the rotors at _setting and _ring. */
+        private int scramble(int c) {
+            for (int i = _numRotors - 1; i >= 0; i--) {
+                c = _forward[i][offset(i) + c];
+            }
+            for (int i = 1; i < _numRotors; i++) {
+                c = _backward[i][offset(i) + c];
+            }
+            return c;
+        }
+
+        /** Return the start of the row of slot I's tables for its
+         *  current setting and ring. */
+        private int offset(int i) {
+            int k = _setting[i] - _ring[i];
+            return (k < 0 ? k + _size : k) * _size;
+        }
+
+        /** Return my current state as a setting line. */
+        private String line() {
+            StringBuilder line = new StringBuilder("*");
+            for (int i = 0; i < _numRotors; i++) {
+                line.append(' ').append(_names[i]);
+            }
+            line.append(' ');
+            for (int i = 1; i < _numRotors; i++) {
+                line.append(_alphabet.toChar(_position[i]));
+            }
+            line.append(' ');
+            for (int i = 1; i < _numRotors; i++) {
+                line.append(_alphabet.toChar(_ring[i]));
+            }
+            for (int c = 0; c < _size; c++) {
+                if (_plug[c] > c) {
+                    line.append(" (").append(_alphabet.toChar(c))
+                        .append(_alphabet.toChar(_plug[c])).append(')');
+                }
+            }
+            return line.toString();
+        }
+
+        /** Starting positions of the rotors. */
+        private final int[] _position = new int[_numRotors];
+
+        /** Rings of the rotors. */
+        private final int[] _ring = new int[_numRotors];
+
+        /** Positions while decrypting. */
+        private final int[] _setting = new int[_numRotors];
+
+        /** Plugboard partner of each character. */
+        private final int[] _plug = new int[_size];
+
+        /** Number of pairs in _plug. */
+        private int _pairs;
+
+        /** Scrambler at each step: entry K * _size + C converts C. */
+        private final int[] _keystream = new int[_cipher.length * _size];
+
+        /** Current decryption. */
+        private final int[] _plain = new int[_cipher.length];
+
+        /** Decryption under a trial plugboard; equal to _plain outside
+         *  trials. */
+        private final int[] _trial = new int[_cipher.length];
+
+        /** Steps at which _trial differs from _plain. */
+        private final int[] _changed = new int[_cipher.length];
+
+        /** Number of steps in _changed. */
+        private int _numChanged;
+
+        /** N-gram starts already rescored by the current trial are marked
+         *  with _stamp. */
+        private final int[] _stamps = new int[_cipher.length];
+
+        /** Mark of the current trial. */
+        private int _stamp;
+
+        /** Character counts for the index of coincidence. */
+        private final int[] _counts = new int[_size];
+
+        /** Number of candidates scored and not yet added to
+         *  _evaluations. */
+        private long _count;
+    }
+
+    /** Most plugboard pairs the solver will connect. */
+    static final int MAX_PAIRS = 10;
+
+    /** The machine's alphabet. */
+    private final Alphabet _alphabet;
+
+    /** Size of _alphabet. */
+    private final int _size;
+
+    /** Number of rotor slots. */
+    private final int _numRotors;
+
+    /** The scores of n-grams. */
+    private final NgramTable _ngrams;
+
+    /** Length of the n-grams. */
+    private final int _order;
+
+    /** Names of the rotors in each slot. */
+    private final String[] _names;
+
+    /** Wiring of the rotor in each slot. */
+    private final Wiring[] _wirings;
+
+    /** Forward tables of the rotors, as for Wiring.forward(). */
+    private final int[][] _forward;
+
+    /** Backward tables of the rotors. */
+    private final int[][] _backward;
+
+    /** True for slots whose rotors move. */
+    private final boolean[] _rotates;
+
+    /** True for slots whose rotors are moved by the notches of the
+     *  rotors to their right. */
+    private final boolean[] _engages;
+
+    /** The ciphertext, as alphabet indices. */
+    private final int[] _cipher;
+
+    /** Most plugboard pairs, limited by the alphabet. */
+    private final int _maxPairs;
+
+    /** Number of restarts requested. */
+    private volatile int _restarts;
+
+    /** Number of restarts finished. */
+    private final LongAdder _done = new LongAdder();
+
+    /** Number of candidates scored. */
+    private final LongAdder _evaluations = new LongAdder();
+
+    /** Best setting line found, or null. */
+    private String _best;
+
+    /** Its score. */
+    private long _bestScore;
+
+    /** The restart that found it. */
+    private int _bestRestart;
+
+}
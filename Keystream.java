@@ -0,0 +1,185 @@
+package enigma;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static enigma.EnigmaException.*;
+
+/** The sequence of full substitutions made by a Machine from a given
+ *  state, precomputed so that converting the character at any position
+ *  of a message is a single table lookup.  The table covers the whole
+ *  period of the rotor motion when that is short enough, so that it
+ *  applies at every position; otherwise it covers a prefix, beyond
+ *  which characters are converted by simulation.
+ *  @author Hanqi Xiong
+ */
+class Keystream {
+
+    /** The keystream of ORIGIN from its current state, with at most
+     *  MAXSTEPS substitutions stored.  ORIGIN is not changed. */
+    Keystream(Machine origin, int maxSteps) {
+        _origin = new Machine(origin);
+        _size = origin.alphabet().size();
+        _width = width(_size);
+        if ((long) maxSteps * _size * _width > Integer.MAX_VALUE) {
+            throw error("keystream of %d steps is too large", maxSteps);
+        }
+        Machine machine = new Machine(origin);
+        int[] start = positions(machine);
+        int[] row = new int[_size];
+        int rowBytes = _size * _width;
+        ByteBuffer table =
+            ByteBuffer.allocate(Math.min(maxSteps, INITIAL_STEPS) * rowBytes);
+        int steps = 0;
+        long period = 0;
+        while (steps < maxSteps && period == 0) {
+            if (!table.hasRemaining()) {
+                int grown = (int) Math.min(maxSteps, 2L * steps);
+                ByteBuffer bigger = ByteBuffer.allocate(grown * rowBytes);
+                table.flip();
+                bigger.put(table);
+                table = bigger;
+            }
+            machine.nextSubstitution(row);
+            for (int c = 0; c < _size; c++) {
+                if (_width == 1) {
+                    table.put((byte) row[c]);
+                } else {
+                    table.putChar((char) row[c]);
+                }
+            }
+            steps += 1;
+            if (Arrays.equals(start, positions(machine))) {
+                period = steps;
+            }
+        }
+        table.flip();
+        if (table.capacity() > table.limit()) {
+            table = ByteBuffer.allocate(table.limit()).put(table).flip();
+        }
+        _table = table;
+        _steps = steps;
+        _period = period;
+    }
+
+    /** A keystream for ORIGIN whose first STEPS substitutions are in
+     *  TABLE, laid out as by Keystream(Machine, int), and which repeats
+     *  every PERIOD steps, or not at all if PERIOD is 0. */
+    Keystream(Machine origin, ByteBuffer table, int steps, long period) {
+        _origin = new Machine(origin);
+        _size = origin.alphabet().size();
+        _width = width(_size);
+        if (table.remaining() != steps * _size * _width) {
+            throw error("keystream table has the wrong size");
+        }
+        _table = table.slice();
+        _steps = steps;
+        _period = period;
+    }
+
+    /** Return the number of bytes per stored substitution entry. */
+    int width() {
+        return _width;
+    }
+
+    /** Return the number of bytes per stored substitution entry for an
+     *  alphabet of SIZE characters. */
+    static int width(int size) {
+        return size <= BYTE_LIMIT ? 1 : 2;
+    }
+
+    /** Return the number of substitutions stored. */
+    int steps() {
+        return _steps;
+    }
+
+    /** Return the period of the substitutions, or 0 if it is longer than
+     *  steps(). */
+    long period() {
+        return _period;
+    }
+
+    /** Return the conversion of C (an index in the alphabet) as the
+     *  character at POSITION (numbering from 0) of a message converted
+     *  from the original state.  Lookups within the table may be made
+     *  concurrently; conversions beyond it are simulated and may not. */
+    int convert(long position, int c) {
+        long step = _period > 0 ? position % _period : position;
+        if (step < _steps) {
+            int index = (int) step * _size + c;
+            return _width == 1 ? _table.get(index) & BYTE_MASK
+                : _table.getChar(index * 2);
+        }
+        if (_cursor == null || _cursorPosition != position) {
+            _cursor = new Machine(_origin);
+            _cursor.jump(position);
+        }
+        _cursorPosition = position + 1;
+        return _cursor.convert(c);
+    }
+
+    /** Convert the LEN characters of BUF starting at OFF in place, all
+     *  of which must be in the alphabet, as the characters starting at
+     *  POSITION of a message converted from the original state. */
+    void convert(char[] buf, int off, int len, long position) {
+        Alphabet alphabet = _origin.alphabet();
+        for (int i = 0; i < len; i++) {
+            int index = alphabet.toInt(buf[off + i]);
+            if (index == Alphabet.UNKNOWN) {
+                throw error("character %c not in alphabet", buf[off + i]);
+            }
+            buf[off + i] = alphabet.toChar(convert(position + i, index));
+        }
+    }
+
+    /** Return a read-only view of the stored substitutions: for each
+     *  step in turn, the conversion of each input, in one byte each if
+     *  the alphabet has at most 256 characters, and otherwise in two. */
+    ByteBuffer table() {
+        return _table.asReadOnlyBuffer();
+    }
+
+    /** Return the settings of the rotors of MACHINE. */
+    private static int[] positions(Machine machine) {
+        int[] result = new int[machine.numRotors()];
+        for (int i = 1; i < result.length; i++) {
+            result[i] = machine.getRotor(i).setting();
+        }
+        return result;
+    }
+
+    /** Substitutions for which room is first made; the table doubles as
+     *  needed, up to the maximum requested. */
+    private static final int INITIAL_STEPS = 1 << 10;
+
+    /** Largest alphabet whose substitutions are stored in bytes. */
+    private static final int BYTE_LIMIT = 256;
+
+    /** Mask selecting the unsigned value of a byte. */
+    private static final int BYTE_MASK = 0xff;
+
+    /** The machine in its original state. */
+    private final Machine _origin;
+
+    /** Size of the alphabet. */
+    private final int _size;
+
+    /** Bytes per table entry. */
+    private final int _width;
+
+    /** Stored substitutions. */
+    private final ByteBuffer _table;
+
+    /** Number of substitutions stored. */
+    private final int _steps;
+
+    /** Period of the substitutions, or 0 if unknown. */
+    private final long _period;
+
+    /** Machine simulating positions beyond the table, or null. */
+    private Machine _cursor;
+
+    /** Position that _cursor converts next. */
+    private long _cursorPosition;
+
+}
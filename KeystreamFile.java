@@ -0,0 +1,238 @@
+package enigma;
+
+import java.io.IOException;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import java.util.Arrays;
+
+import static enigma.EnigmaException.*;
+
+/** A Keystream stored in a file, which is mapped read-only so that
+ *  processes using the same one share a single copy in memory.  The
+ *  file holds, in big-endian order: the int MAGIC; the int VERSION; the
+ *  alphabet and the setting line that produced the keystream, each as
+ *  an int length followed by that many chars; the DIGEST_SIZE bytes of
+ *  the digest of the machine (see digest); the int width of a table
+ *  entry in bytes; the int number of steps stored; the long period
+ *  (0 if unknown); and the table, as for Keystream.table().
+ *  @author Hanqi Xiong
+ */
+final class KeystreamFile {
+
+    /** Precompute the keystream of the machine described by
+     *  configuration file ARGS[0], set up by the setting line ARGS[1],
+     *  for at most ARGS[2] steps, and write it to file ARGS[3]. */
+    public static void main(String... args) {
+        try {
+            if (args.length != 4) {
+                throw error("Usage: java enigma.KeystreamFile CONFIG "
+                            + "SETTINGS STEPS OUTPUT");
+            }
+            Main main = new Main(Arrays.asList(args[0]));
+            Machine machine = main.readConfig();
+            main.setUp(machine, args[1]);
+            int steps;
+            try {
+                steps = Integer.parseInt(args[2]);
+            } catch (NumberFormatException excp) {
+                throw error("bad number of steps: %s", args[2]);
+            }
+            write(Paths.get(args[3]), new Keystream(machine, steps),
+                  machine, args[1]);
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** Write KEYSTREAM, which was made by MACHINE set up by the setting
+     *  line SETTINGS, to FILE. */
+    static void write(Path file, Keystream keystream, Machine machine,
+                      String settings) {
+        settings = settings.trim();
+        Alphabet alphabet = machine.alphabet();
+        ByteBuffer table = keystream.table();
+        ByteBuffer header =
+            ByteBuffer.allocate(HEADER_SIZE + DIGEST_SIZE
+                                + 2 * (alphabet.size() + settings.length()));
+        header.putInt(MAGIC).putInt(VERSION);
+        header.putInt(alphabet.size());
+        for (int i = 0; i < alphabet.size(); i++) {
+            header.putChar(alphabet.toChar(i));
+        }
+        header.putInt(settings.length());
+        for (int i = 0; i < settings.length(); i++) {
+            header.putChar(settings.charAt(i));
+        }
+        header.put(digest(machine));
+        header.putInt(keystream.width());
+        header.putInt(keystream.steps()).putLong(keystream.period());
+        header.flip();
+        try (FileChannel out =
+             FileChannel.open(file, StandardOpenOption.CREATE,
+                              StandardOpenOption.TRUNCATE_EXISTING,
+                              StandardOpenOption.WRITE)) {
+            while (header.hasRemaining() || table.hasRemaining()) {
+                out.write(new ByteBuffer[] { header, table });
+            }
+        } catch (IOException excp) {
+            throw error("could not write %s: %s", file, excp.getMessage());
+        }
+    }
+
+    /** Map the keystream file FILE. */
+    KeystreamFile(Path file) {
+        _file = file;
+        try (FileChannel in = FileChannel.open(file,
+                                               StandardOpenOption.READ)) {
+            if (in.size() > Integer.MAX_VALUE) {
+                throw error("%s is too large", file);
+            }
+            _data = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+        } catch (IOException excp) {
+            throw error("could not open %s: %s", file, excp.getMessage());
+        }
+        try {
+            if (_data.getInt() != MAGIC) {
+                throw error("%s is not a keystream file", file);
+            }
+            if (_data.getInt() != VERSION) {
+                throw error("%s has an unsupported version", file);
+            }
+            _alphabet = getString();
+            _settings = getString();
+            _digest = new byte[DIGEST_SIZE];
+            _data.get(_digest);
+            _width = _data.getInt();
+            _steps = _data.getInt();
+            _period = _data.getLong();
+        } catch (BufferUnderflowException excp) {
+            throw error("%s is truncated", file);
+        }
+    }
+
+    /** Return the setting line that produced my keystream. */
+    String settings() {
+        return _settings;
+    }
+
+    /** Return my keystream, converting as MACHINE would from its current
+     *  state, which must be that set up by settings() on a machine with
+     *  the same description (see digest) as the one that produced the
+     *  keystream. */
+    Keystream keystream(Machine machine) {
+        Alphabet alphabet = machine.alphabet();
+        boolean same = alphabet.size() == _alphabet.length();
+        for (int i = 0; same && i < _alphabet.length(); i++) {
+            same = alphabet.toChar(i) == _alphabet.charAt(i);
+        }
+        if (!same || _width != Keystream.width(alphabet.size())) {
+            throw error("%s was made for a different alphabet", _file);
+        }
+        if (!MessageDigest.isEqual(_digest, digest(machine))) {
+            throw error("%s was made for a different machine", _file);
+        }
+        return new Keystream(machine, _data, _steps, _period);
+    }
+
+    /** Return the SHA-256 digest of the description of MACHINE that
+     *  determines its keystream, apart from its settings: its alphabet,
+     *  numbers of rotors and pawls, and the kind, permutation and notches
+     *  of each rotor it holds. */
+    static byte[] digest(Machine machine) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalStateException(excp);
+        }
+        Alphabet alphabet = machine.alphabet();
+        int size = alphabet.size();
+        ByteBuffer buf =
+            ByteBuffer.allocate(Integer.BYTES * (size + 3) + size);
+        buf.putInt(size).putInt(machine.numRotors())
+            .putInt(machine.numPawls());
+        for (int i = 0; i < size; i++) {
+            buf.putInt(alphabet.toChar(i));
+        }
+        digest.update(buf.flip());
+        for (int k = 0; k < machine.numRotors(); k++) {
+            Rotor rotor = machine.getRotor(k);
+            if (rotor == null) {
+                throw error("the machine has no rotors inserted");
+            }
+            Wiring wiring = rotor.wiring();
+            buf.clear();
+            buf.putInt((rotor.rotates() ? 1 : 0)
+                       | (rotor.reflecting() ? 2 : 0));
+            for (int p = 0; p < size; p++) {
+                buf.putInt(wiring.permutation().permute(p));
+                buf.put((byte) (wiring.notchAt(p) ? 1 : 0));
+            }
+            digest.update(buf.flip());
+        }
+        return digest.digest();
+    }
+
+    /** Return the string at the current position of _data. */
+    private String getString() {
+        int len = _data.getInt();
+        if (len < 0 || len > _data.remaining() / 2) {
+            throw error("%s is truncated", _file);
+        }
+        char[] chars = new char[len];
+        _data.asCharBuffer().get(chars);
+        _data.position(_data.position() + 2 * len);
+        return new String(chars);
+    }
+
+    /** Identifies a keystream file ("ENKS"). */
+    static final int MAGIC = 0x454e4b53;
+
+    /** Version of the file layout. */
+    static final int VERSION = 2;
+
+    /** Bytes in the fixed-size fields of the header, apart from the
+     *  digest. */
+    private static final int HEADER_SIZE = 32;
+
+    /** Bytes in the digest of a machine. */
+    static final int DIGEST_SIZE = 32;
+
+    /** The mapped file, positioned at the table once the header has been
+     *  read. */
+    private final MappedByteBuffer _data;
+
+    /** The file name, for messages. */
+    private final Path _file;
+
+    /** Characters of the alphabet, in order. */
+    private final String _alphabet;
+
+    /** The setting line, trimmed. */
+    private final String _settings;
+
+    /** Digest of the machine that produced the keystream. */
+    private final byte[] _digest;
+
+    /** Bytes per table entry. */
+    private final int _width;
+
+    /** Number of substitutions stored. */
+    private final int _steps;
+
+    /** Period of the substitutions, or 0 if unknown. */
+    private final long _period;
+
+}
@@ -1,6 +1,14 @@
 package enigma;
 
+import java.nio.CharBuffer;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 
 import static enigma.EnigmaException.*;
 
@@ -11,14 +19,51 @@ class Machine {
 
     /** A new Enigma machine with alphabet ALPHA, 1 < NUMROTORS rotor slots,
      *  and 0 < PAWLS < NUMROTORS pawls.  ALLROTORS contains all the
-     *  available rotors. */
+     *  available rotors.  These serve only as definitions: the machine
+     *  inserts its own copies of them and never changes the originals, so
+     *  one collection may be shared by many machines and threads. */
     Machine(Alphabet alpha, int numRotors, int pawls,
             Collection<Rotor> allRotors) {
         _alphabet = alpha;
         _numRotors = numRotors;
         _pawls = pawls;
-        _allRotors = allRotors.toArray();
+        _allRotors = allRotors.toArray(new Rotor[0]);
+        _registry = new HashMap<>();
+        for (Rotor rotor : _allRotors) {
+            _registry.put(rotor.name(), rotor);
+        }
         _rotors = new Rotor[_numRotors];
+        _engages = new boolean[_numRotors];
+        _advancing = new boolean[_numRotors];
+    }
+
+    /** A machine with the same available rotors, inserted rotors,
+     *  settings and plugboard as ORIGINAL, whose rotors move
+     *  independently of ORIGINAL's.  The copy has no tracer. */
+    Machine(Machine original) {
+        _alphabet = original._alphabet;
+        _numRotors = original._numRotors;
+        _pawls = original._pawls;
+        _allRotors = original._allRotors;
+        _registry = original._registry;
+        _rotors = new Rotor[_numRotors];
+        for (int i = 0; i < _numRotors; i++) {
+            if (original._rotors[i] != null) {
+                _rotors[i] = original._rotors[i].copy();
+            }
+        }
+        _engages = original._engages.clone();
+        _advancing = new boolean[_numRotors];
+        _plugboard = original._plugboard;
+        _folded = original._folded;
+        _turnaround = original._turnaround;
+        _slow = original._slowValid && original._slow != original._slowScratch
+            ? original._slow : null;
+        _slowValid = _slow != null;
+        _compile = original._compile;
+        if (original._engine != null) {
+            _engine = EngineCompiler.compile(this);
+        }
     }
 
     /** Return the number of rotor slots I have. */
@@ -31,10 +76,22 @@ class Machine {
         return _pawls;
     }
 
+    /** Return the rotors available to me, as definitions that must not
+     *  be changed (see Machine(Alphabet, int, int, Collection)). */
+    List<Rotor> library() {
+        return Collections.unmodifiableList(Arrays.asList(_allRotors));
+    }
+
+    /** Set the rings of my rotors according to RING, which must be a
+     *  string of numRotors()-1 characters in my alphabet, as for
+     *  setRotors. */
     void insertRing(String ring) {
         for (int i = 1; i < numRotors(); i++) {
             getRotor(i).setring(ring.charAt(i - 1));
         }
+        foldTurnaround();
+        _slowCache.clear();
+        _slowValid = false;
     }
 
     /** Return Rotor #K, where Rotor #0 is the reflector, and Rotor
@@ -51,27 +108,142 @@ class Machine {
         return _alphabet;
     }
 
-    /** Set my rotor slots to the rotors named ROTORS from my set of
-     *  available rotors (ROTORS[0] names the reflector).
-     *  Initially, all rotors are set at their 0 setting. */
+    /** Set my rotor slots to fresh copies of the rotors named ROTORS
+     *  from my set of available rotors (ROTORS[0] names the reflector).
+     *  Initially, all rotors are set at their 0 setting, with their
+     *  rings at 0. */
     void insertRotors(String[] rotors) {
-        boolean [] check = new boolean[rotors.length];
+        Rotor[] definitions = definitions(rotors);
+        for (int i = 0; i < definitions.length; i++) {
+            _rotors[i] = definitions[i].copy();
+        }
+        rotorsChanged();
+    }
+
+    /** Return the rotors available to me by name, the last of any with
+     *  the same name winning.  The result is shared with every machine
+     *  copied from me or from which I was copied, and must not be
+     *  modified. */
+    Map<String, Rotor> registry() {
+        return _registry;
+    }
+
+    /** Return the definitions, from my set of available rotors, of the
+     *  rotors named ROTORS, one for each of my slots, as for
+     *  insertRotors. */
+    Rotor[] definitions(String[] rotors) {
+        if (_rotors.length != rotors.length) {
+            throw error("There can't be unnamed rotor");
+        }
+        Rotor[] result = new Rotor[rotors.length];
         for (int i = 0; i < rotors.length; i++) {
-            for (Object allRotor : _allRotors) {
-                if ((rotors[i]).equals((((Rotor) allRotor).name()))) {
-                    _rotors[i] = (Rotor) allRotor;
-                    check[i] = true;
-                }
+            result[i] = _registry.get(rotors[i]);
+            if (result[i] == null) {
+                throw error("unmatched rotor");
             }
         }
-        for (boolean b : check) {
-            if (!b) {
-                throw error("unmatched rotor");
+        return result;
+    }
+
+    /** Set me up as insertRotors, setRotors, insertRing and
+     *  setPlugboard would, from DEFINITIONS, the rotor for each slot as
+     *  returned by definitions(); POSITIONS and RINGS, the settings and
+     *  rings of slots 1 .. numRotors()-1 as alphabet indices (RINGS
+     *  null for all 0); and PLUGBOARD.  Rotors already in place that
+     *  were copied from the same definitions are kept, as are the tables
+     *  derived from them if those are unaffected, so that setting me up
+     *  again as before costs little more than setting my positions. */
+    void setUp(Rotor[] definitions, int[] positions, int[] rings,
+               Permutation plugboard) {
+        boolean replaced = false;
+        for (int i = 0; i < _numRotors; i++) {
+            Rotor rotor = _rotors[i];
+            if (rotor == null || rotor.wiring() != definitions[i].wiring()
+                || rotor.getClass() != definitions[i].getClass()) {
+                _rotors[i] = definitions[i].copy();
+                replaced = true;
             }
         }
-        if (_rotors.length != rotors.length) {
-            throw error("There can't be unnamed rotor");
+        boolean refold = replaced, rerung = false;
+        for (int i = 1; i < _numRotors; i++) {
+            Rotor rotor = _rotors[i];
+            int ring = rings == null ? 0 : rings[i - 1];
+            if (rotor.ring() != ring) {
+                rotor.setring(ring);
+                rerung = true;
+                refold |= i < _folded;
+            }
+            if (rotor.setting() != positions[i - 1]) {
+                rotor.set(positions[i - 1]);
+                refold |= i < _folded;
+            }
+        }
+        if (replaced) {
+            rotorsChanged();
+        } else {
+            if (refold) {
+                foldTurnaround();
+            }
+            if (rerung) {
+                _slowCache.clear();
+            }
+            _slowValid = false;
+        }
+        _plugboard = plugboard;
+    }
+
+    /** Bring everything derived from my rotors up to date after new ones
+     *  have been inserted. */
+    private void rotorsChanged() {
+        for (int i = 1; i < _rotors.length; i++) {
+            _engages[i] = _rotors[i - 1].rotates();
+        }
+        foldTurnaround();
+        _slowCache.clear();
+        _slowValid = false;
+        _engine = _compile ? EngineCompiler.compile(this) : null;
+    }
+
+    /** Convert bulk input from now on with engines generated for, and
+     *  specialized to, each arrangement of rotors inserted into me (see
+     *  EngineCompiler).  Returns false if there is no engine for my
+     *  current arrangement, which is then converted as usual. */
+    boolean compile() {
+        _compile = true;
+        if (_rotors[0] != null) {
+            _engine = EngineCompiler.compile(this);
+        }
+        return _rotors[0] == null || _engine != null;
+    }
+
+    /** Return the composite table of the reflector and the non-rotating
+     *  rotors next to it, which must not be modified. */
+    int[] turnaround() {
+        return _turnaround;
+    }
+
+    /** Compose the reflector and the contiguous non-rotating rotors to
+     *  its right (short of the fast rotor), which never move once set,
+     *  into the single table _turnaround. */
+    private void foldTurnaround() {
+        int last = _numRotors - 1;
+        int folded = 1;
+        while (folded < last && !_rotors[folded].rotates()) {
+            folded += 1;
         }
+        int[] table = new int[_alphabet.size()];
+        for (int c = 0; c < table.length; c++) {
+            int x = c;
+            for (int i = folded - 1; i >= 0; i--) {
+                x = _rotors[i].convertForward(x);
+            }
+            for (int i = 1; i < folded; i++) {
+                x = _rotors[i].convertBackward(x);
+            }
+            table[c] = x;
+        }
+        _folded = folded;
+        _turnaround = table;
     }
 
     /** Set my rotors according to SETTING, which must be a string of
@@ -82,11 +254,42 @@ class Machine {
             throw error("must be a string of numRotors() - 1");
         }
         for (int i = 1; i < _rotors.length; i++) {
-            if (!_alphabet.contains(setting.charAt(i - 1))) {
+            int posn = _alphabet.toInt(setting.charAt(i - 1));
+            if (posn == Alphabet.UNKNOWN) {
                 throw error("character not in alphabet");
             }
-            _rotors[i].set(setting.charAt(i - 1));
+            _rotors[i].set(posn);
+        }
+        foldTurnaround();
+        _slowValid = false;
+    }
+
+    /** Return the current settings of my rotors, leftmost (not counting
+     *  the reflector) first, in the form accepted by setRotors. */
+    String settings() {
+        char[] result = new char[_numRotors - 1];
+        for (int i = 1; i < _numRotors; i++) {
+            result[i - 1] = _alphabet.toChar(_rotors[i].setting());
+        }
+        return new String(result);
+    }
+
+    /** Put my rotors in the positions they would reach after KEYPRESSES
+     *  further characters were converted, without converting them.  The
+     *  positions are worked out by an Odometer, at a cost that depends on
+     *  my rotors and their notches but not on KEYPRESSES. */
+    void jump(long keypresses) {
+        if (keypresses < 0) {
+            throw error("cannot jump backwards");
+        }
+        if (_rotors[0] == null) {
+            throw error("There must be rotors to advance");
         }
+        Odometer odometer =
+            new Odometer(_rotors, _engages, _alphabet.size());
+        odometer.advance(keypresses);
+        odometer.store();
+        _slowValid = false;
     }
 
     /** Return the current plugboard's permutation. */
@@ -99,82 +302,370 @@ class Machine {
         _plugboard = plugboard;
     }
 
+    /** Set the listener notified of each conversion to TRACER, or
+     *  stop tracing if TRACER is null. */
+    void setTracer(TraceListener tracer) {
+        _tracer = tracer;
+    }
+
     /** Returns the result of converting the input character C (as an
      *  index in the range 0..alphabet size - 1), after first advancing
      *  the machine. */
     int convert(int c) {
         advanceRotors();
-        if (Main.verbose()) {
-            System.err.printf("[");
-            for (int r = 1; r < numRotors(); r += 1) {
-                System.err.printf("%c",
-                        alphabet().toChar(getRotor(r).setting()));
-            }
-            System.err.printf("] %c -> ", alphabet().toChar(c));
+        if (_tracer != null) {
+            return convertTraced(c);
+        }
+        return _plugboard.permute(applyRotors(_plugboard.permute(c)));
+    }
+
+    /** Advance the machine as for convert(int), and fill ROW with the
+     *  conversion of each input at the new position, without notifying
+     *  any tracer. */
+    void nextSubstitution(int[] row) {
+        advanceRotors();
+        for (int c = 0; c < row.length; c++) {
+            row[c] = _plugboard.permute(applyRotors(_plugboard.permute(c)));
+        }
+    }
+
+    /** Return the conversion of C by the already-advanced machine,
+     *  reporting each step to _tracer. */
+    private int convertTraced(int c) {
+        _tracer.start(this, c);
+        c = _plugboard.permute(c);
+        _tracer.plugboard(c);
+        if (c < 0 || c >= alphabet().size()) {
+            throw error("wrong index number");
         }
-        c = plugboard().permute(c);
-        if (Main.verbose()) {
-            System.err.printf("%c -> ", alphabet().toChar(c));
+        for (int i = _numRotors - 1; i >= 0; i--) {
+            c = _rotors[i].convertForward(c);
+            _tracer.rotor(_rotors[i], _rotors[i].contact(c));
         }
-        c = applyRotors(c);
-        c = plugboard().permute(c);
-        if (Main.verbose()) {
-            System.err.printf("%c%n", alphabet().toChar(c));
+        for (int i = 1; i < _numRotors; i++) {
+            c = _rotors[i].convertBackward(c);
+            _tracer.rotor(_rotors[i], _rotors[i].contact(c));
         }
+        c = _plugboard.permute(c);
+        _tracer.finish(c);
         return c;
     }
 
     /** Advance all rotors to their next position. */
     private void advanceRotors() {
-        boolean[] advanceRotors = new boolean[_rotors.length];
-        advanceRotors[_rotors.length - 1] = true;
         if (_rotors[0] == null) {
             throw error("There must be rotors to advance");
         }
-        for (int i = _rotors.length - 1; i > 0; i--) {
-            if (_rotors[i].atNotch() && _rotors[i - 1].rotates()) {
-                advanceRotors[i] = true;
-                advanceRotors[i - 1] = true;
+        int last = _rotors.length - 1;
+        boolean engaged = false;
+        for (int i = last; i > 0; i--) {
+            if (_engages[i] && _rotors[i].atNotch()) {
+                _advancing[i] = true;
+                _advancing[i - 1] = true;
+                engaged = true;
             }
         }
-        for (int i = 0; i < _rotors.length; i++) {
-            if (advanceRotors[i]) {
+        if (!engaged) {
+            _rotors[last].advance();
+            return;
+        }
+        _advancing[last] = true;
+        _slowValid = false;
+        for (int i = 0; i <= last; i++) {
+            if (_advancing[i]) {
+                _advancing[i] = false;
                 _rotors[i].advance();
             }
         }
     }
+
     /** Return the result of applying the rotors to the character C (as an
      *  index in the range 0..alphabet size - 1). */
     private int applyRotors(int c) {
         if (c < 0 || c >= alphabet().size()) {
             throw error("wrong index number");
         }
-        for (int i = _numRotors - 1; i >= 0; i--) {
-            c = _rotors[i].convertForward(c);
+        if (!_slowValid) {
+            loadSlow();
         }
-        for (int i = 1; i < _numRotors; i++) {
-            c = _rotors[i].convertBackward(c);
+        Rotor fast = _rotors[_numRotors - 1];
+        return fast.convertBackward(_slow[fast.convertForward(c)]);
+    }
+
+    /** Set _slow to the composite conversion through all but my fast
+     *  rotor at their current positions, taking it from _slowCache if
+     *  possible. */
+    private void loadSlow() {
+        int key = slowKey();
+        if (key < 0) {
+            if (_slowScratch == null) {
+                _slowScratch = new int[_alphabet.size()];
+            }
+            _slow = composeSlow(_slowScratch);
+        } else {
+            int[] table = _slowCache.get(key);
+            if (table == null) {
+                table = composeSlow(new int[_alphabet.size()]);
+                _slowCache.put(key, table);
+            }
+            _slow = table;
         }
-        return c;
+        _slowValid = true;
+    }
+
+    /** Return the settings of the rotors in slots 1 .. numRotors()-2
+     *  packed into a non-negative int, or -1 if they do not fit. */
+    private int slowKey() {
+        long size = _alphabet.size();
+        long key = 0;
+        for (int i = 1; i < _numRotors - 1; i++) {
+            key = key * size + _rotors[i].setting();
+            if (key > Integer.MAX_VALUE / size) {
+                return -1;
+            }
+        }
+        return (int) key;
+    }
+
+    /** Fill TABLE with the conversion of each contact forward through my
+     *  rotors from slot numRotors()-2 to the reflector, and back out to
+     *  slot numRotors()-2.  Returns TABLE. */
+    private int[] composeSlow(int[] table) {
+        int last = _numRotors - 1;
+        for (int c = 0; c < table.length; c++) {
+            int x = c;
+            for (int i = last - 1; i >= _folded; i--) {
+                x = _rotors[i].convertForward(x);
+            }
+            x = _turnaround[x];
+            for (int i = _folded; i < last; i++) {
+                x = _rotors[i].convertBackward(x);
+            }
+            table[c] = x;
+        }
+        return table;
     }
 
     /** Returns the encoding/decoding of MSG, updating the state of
-     *  the rotors accordingly. */
+     *  the rotors accordingly.  Blanks in MSG are dropped. */
     String convert(String msg) {
-        msg = msg.replace(" ", "");
-        StringBuilder convertedMsg = new StringBuilder();
-        for (int i = 0; i < msg.length();) {
-            if (msg.charAt(i) == ' ') {
-                convertedMsg.append(" ");
-            } else {
-                int converted = convert(_alphabet.toInt(msg.charAt(i)));
-                convertedMsg.append(_alphabet.toChar(converted));
+        char[] buf = msg.toCharArray();
+        int len = 0;
+        for (int i = 0; i < buf.length; i++) {
+            if (buf[i] != ' ') {
+                buf[len++] = buf[i];
             }
-            i++;
         }
-        return convertedMsg.toString();
+        len = convert(buf, 0, len, UnknownPolicy.REJECT);
+        return new String(buf, 0, len);
     }
 
+    /** Convert the LEN characters of BUF starting at OFF in place,
+     *  treating characters outside my alphabet according to POLICY.
+     *  Returns the number of characters left at BUF[OFF..], which is
+     *  less than LEN only if POLICY is SKIP. */
+    int convert(char[] buf, int off, int len, UnknownPolicy policy) {
+        return convert(buf, off, buf, off, len, policy);
+    }
+
+    /** Convert the LEN characters of SRC starting at SRCOFF into DST
+     *  starting at DSTOFF, treating characters outside my alphabet
+     *  according to POLICY.  SRC and DST may be the same array provided
+     *  DSTOFF <= SRCOFF.  Returns the number of characters written.
+     *  If POLICY is REJECT, characters before the offending one will
+     *  already have been converted. */
+    int convert(char[] src, int srcOff, char[] dst, int dstOff, int len,
+                UnknownPolicy policy) {
+        if (_engine != null && _tracer == null) {
+            return convertCompiled(src, srcOff, dst, dstOff, len, policy);
+        }
+        int n = dstOff;
+        for (int i = srcOff; i < srcOff + len; i++) {
+            char ch = src[i];
+            int index = _alphabet.toInt(ch);
+            if (index != Alphabet.UNKNOWN) {
+                dst[n++] = _alphabet.toChar(convert(index));
+            } else if (policy == UnknownPolicy.COPY) {
+                dst[n++] = ch;
+            } else if (policy == UnknownPolicy.REJECT) {
+                throw error("character %c not in alphabet", ch);
+            }
+        }
+        return n - dstOff;
+    }
+
+    /** As for convert(char[], int, char[], int, int, UnknownPolicy),
+     *  using _engine. */
+    private int convertCompiled(char[] src, int srcOff, char[] dst,
+                                int dstOff, int len, UnknownPolicy policy) {
+        _engine.load(this);
+        _slowValid = false;
+        int n = dstOff;
+        int end = srcOff + len;
+        try {
+            for (int i = srcOff; i < end; i++) {
+                int done = _engine.convert(src, i, dst, n, end - i);
+                i += done;
+                n += done;
+                if (i == end) {
+                    break;
+                } else if (policy == UnknownPolicy.COPY) {
+                    dst[n++] = src[i];
+                } else if (policy == UnknownPolicy.REJECT) {
+                    throw error("character %c not in alphabet", src[i]);
+                }
+            }
+        } finally {
+            _engine.store(this);
+        }
+        return n - dstOff;
+    }
+
+    /** Convert the remaining characters of SRC into DST, treating
+     *  characters outside my alphabet according to POLICY, and stopping
+     *  only when SRC is exhausted or DST fills.  SRC and DST must be
+     *  different buffers, but may share their contents (for example, DST
+     *  may be SRC.duplicate()), provided DST's position does not lie
+     *  ahead of SRC's.  Advances the positions of both buffers and
+     *  returns the number of characters written.  If POLICY is REJECT,
+     *  a character outside my alphabet stops the conversion with an
+     *  EnigmaException, SRC being left positioned at that character and
+     *  DST just past the conversion of the characters before it, so
+     *  that nothing is converted twice if the call is repeated. */
+    int convert(CharBuffer src, CharBuffer dst, UnknownPolicy policy) {
+        if (src == dst) {
+            throw error("cannot convert a buffer into itself");
+        }
+        if (src.hasArray() && dst.hasArray()) {
+            int srcOff = src.arrayOffset() + src.position();
+            int dstOff = dst.arrayOffset() + dst.position();
+            if (src.array() == dst.array() && dstOff > srcOff
+                && dstOff < srcOff + src.remaining()) {
+                throw error("output would overwrite unconverted input");
+            }
+            int n = 0;
+            while (src.hasRemaining() && dst.hasRemaining()) {
+                int len = Math.min(src.remaining(), dst.remaining());
+                srcOff = src.arrayOffset() + src.position();
+                int known = policy == UnknownPolicy.REJECT
+                    ? known(src.array(), srcOff, len) : len;
+                int done = convert(src.array(), srcOff, dst.array(),
+                                   dst.arrayOffset() + dst.position(),
+                                   known, policy);
+                src.position(src.position() + known);
+                dst.position(dst.position() + done);
+                n += done;
+                if (known < len) {
+                    throw error("character %c not in alphabet",
+                                src.get(src.position()));
+                }
+            }
+            return n;
+        }
+        int n = 0;
+        while (src.hasRemaining() && dst.hasRemaining()) {
+            char ch = src.get(src.position());
+            int index = _alphabet.toInt(ch);
+            if (index != Alphabet.UNKNOWN) {
+                dst.put(_alphabet.toChar(convert(index)));
+                n += 1;
+            } else if (policy == UnknownPolicy.COPY) {
+                dst.put(ch);
+                n += 1;
+            } else if (policy == UnknownPolicy.REJECT) {
+                throw error("character %c not in alphabet", ch);
+            }
+            src.position(src.position() + 1);
+        }
+        return n;
+    }
+
+    /** Return the number of the LEN characters of BUF starting at OFF
+     *  that come before the first one outside my alphabet. */
+    private int known(char[] buf, int off, int len) {
+        for (int i = 0; i < len; i++) {
+            if (_alphabet.toInt(buf[off + i]) == Alphabet.UNKNOWN) {
+                return i;
+            }
+        }
+        return len;
+    }
+
+    /** Convert the LEN bytes of SRC starting at SRCOFF into DST starting
+     *  at DSTOFF, as for the char[] version, taking each byte to be the
+     *  character with that (unsigned) code.  Every character of my
+     *  alphabet must fit in a byte, as any of them may be produced;
+     *  otherwise nothing is converted. */
+    int convert(byte[] src, int srcOff, byte[] dst, int dstOff, int len,
+                UnknownPolicy policy) {
+        if (_alphabet.maxChar() > BYTE_MASK) {
+            throw error("character %c does not fit in a byte",
+                        _alphabet.maxChar());
+        }
+        int n = dstOff;
+        for (int i = srcOff; i < srcOff + len; i++) {
+            char ch = (char) (src[i] & BYTE_MASK);
+            int index = _alphabet.toInt(ch);
+            if (index != Alphabet.UNKNOWN) {
+                dst[n++] = (byte) _alphabet.toChar(convert(index));
+            } else if (policy == UnknownPolicy.COPY) {
+                dst[n++] = src[i];
+            } else if (policy == UnknownPolicy.REJECT) {
+                throw error("byte %d not in alphabet", (int) ch);
+            }
+        }
+        return n - dstOff;
+    }
+
+    /** True iff I convert bulk input with generated engines. */
+    private boolean _compile;
+
+    /** Engine specialized to my current rotors, or null. */
+    private Engine _engine;
+
+    /** Most composite tables kept in _slowCache. */
+    private static final int SLOW_CACHE_SIZE = 1024;
+
+    /** Load factor of _slowCache. */
+    private static final float LOAD_FACTOR = 0.75f;
+
+    /** Returns the encoding/decoding of MSG, as for convert(String), but
+     *  converting long messages in segments on POOL. */
+    String convertParallel(String msg, ForkJoinPool pool) {
+        char[] buf = msg.toCharArray();
+        int len = 0;
+        for (int i = 0; i < buf.length; i++) {
+            if (buf[i] != ' ') {
+                buf[len++] = buf[i];
+            }
+        }
+        convertParallel(buf, 0, len, pool);
+        return new String(buf, 0, len);
+    }
+
+    /** Convert the LEN characters of BUF starting at OFF in place, all
+     *  of which must be in my alphabet, with the same result as
+     *  convert(BUF, OFF, LEN, UnknownPolicy.REJECT), but converting
+     *  segments of a long range concurrently on POOL.  Leaves my rotors
+     *  where the sequential conversion would. */
+    void convertParallel(char[] buf, int off, int len, ForkJoinPool pool) {
+        if (_tracer != null || len < 2 * ConvertTask.SEGMENT) {
+            convert(buf, off, len, UnknownPolicy.REJECT);
+            return;
+        }
+        for (int i = off; i < off + len; i++) {
+            if (_alphabet.toInt(buf[i]) == Alphabet.UNKNOWN) {
+                throw error("character %c not in alphabet", buf[i]);
+            }
+        }
+        pool.invoke(new ConvertTask(new Machine(this), buf, off, off,
+                                    off + len));
+        jump(len);
+    }
+
+    /** Mask selecting the unsigned value of a byte. */
+    private static final int BYTE_MASK = 0xff;
+
     /** Common alphabet of my rotors. */
     private final Alphabet _alphabet;
 
@@ -184,13 +675,57 @@ class Machine {
     /** Number of pawls this machine has. */
     private final int _pawls;
 
-    /** Present all rotors. */
-    private final Object [] _allRotors;
+    /** Present all rotors, as definitions shared with other machines;
+     *  never modified. */
+    private final Rotor [] _allRotors;
+
+    /** The rotors of _allRotors by name, the last of any with the same
+     *  name winning; shared like _allRotors. */
+    private final Map<String, Rotor> _registry;
 
     /** Present the rotors this machine has. */
     private final Rotor [] _rotors;
 
+    /** True for each slot K > 0 whose rotor, at a notch, pushes the
+     *  rotor in slot K-1 (i.e., whose left neighbor rotates). */
+    private final boolean[] _engages;
+
+    /** Rotors to advance on the current step; all false between steps. */
+    private final boolean[] _advancing;
+
     /** Permutation of plugboard. */
     private Permutation _plugboard;
 
+    /** Number of slots, starting with the reflector, folded into
+     *  _turnaround. */
+    private int _folded;
+
+    /** Conversion into and back out of the first _folded slots, which
+     *  do not move. */
+    private int[] _turnaround;
+
+    /** Conversion through all but the fast rotor at their current
+     *  positions, valid only if _slowValid. */
+    private int[] _slow;
+
+    /** True iff _slow is up to date. */
+    private boolean _slowValid;
+
+    /** Table reused for _slow when the positions are too many to
+     *  cache. */
+    private int[] _slowScratch;
+
+    /** Recently used values of _slow, by slowKey(). */
+    private final LinkedHashMap<Integer, int[]> _slowCache =
+        new LinkedHashMap<>(SLOW_CACHE_SIZE, LOAD_FACTOR, true) {
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<Integer, int[]> eldest) {
+                return size() > SLOW_CACHE_SIZE;
+            }
+        };
+
+    /** Listener notified of each conversion, or null if none. */
+    private TraceListener _tracer;
+
 }
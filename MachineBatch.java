@@ -0,0 +1,284 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+import static enigma.EnigmaException.*;
+
+/** A batch of machines with the same alphabet and number of rotor
+ *  slots, but any rotors, settings, rings and plugboards, that convert
+ *  the same input in lockstep.  The state of every machine ("lane") is
+ *  held in primitive arrays indexed by slot and then by lane, so that
+ *  each step applies to all lanes at once, one slot of every lane
+ *  after another.
+ *  @author Hanqi Xiong
+ */
+final class MachineBatch {
+
+    /** A batch whose lanes start as copies of MACHINES, each of which
+     *  must have its rotors and plugboard set.  MACHINES are not
+     *  changed. */
+    MachineBatch(List<Machine> machines) {
+        if (machines.isEmpty()) {
+            throw error("a batch needs at least one machine");
+        }
+        Machine first = machines.get(0);
+        _alphabet = first.alphabet();
+        _size = _alphabet.size();
+        _numRotors = first.numRotors();
+        _lanes = machines.size();
+        _wiring = new int[_numRotors][_lanes];
+        _setting = new int[_numRotors][_lanes];
+        _ring = new int[_numRotors][_lanes];
+        _base = new int[_numRotors][_lanes];
+        _notch = new int[_numRotors][_lanes];
+        _rotates = new int[_numRotors][_lanes];
+        _engages = new int[_numRotors][_lanes];
+        _plugBase = new int[_lanes];
+        _plug = new int[_lanes * _size];
+        _result = new int[_lanes];
+        _carry = new int[_lanes];
+
+        IdentityHashMap<Wiring, Integer> index = new IdentityHashMap<>();
+        ArrayList<Wiring> wirings = new ArrayList<>();
+        for (int lane = 0; lane < _lanes; lane++) {
+            Machine machine = machines.get(lane);
+            if (machine.alphabet() != _alphabet
+                || machine.numRotors() != _numRotors) {
+                throw error("machines in a batch must have the same "
+                            + "alphabet and number of rotors");
+            }
+            if (machine.getRotor(0) == null || machine.plugboard() == null) {
+                throw error("machines in a batch must be set up");
+            }
+            for (int i = 0; i < _numRotors; i++) {
+                Rotor rotor = machine.getRotor(i);
+                Integer k = index.get(rotor.wiring());
+                if (k == null) {
+                    k = wirings.size();
+                    index.put(rotor.wiring(), k);
+                    wirings.add(rotor.wiring());
+                }
+                _wiring[i][lane] = k * _size * _size;
+                _notch[i][lane] = k * _size;
+                _setting[i][lane] = rotor.setting();
+                _ring[i][lane] = rotor.ring();
+                _rotates[i][lane] = rotor.rotates() ? 1 : 0;
+                _engages[i][lane] = i > 0 && rotor.rotates()
+                    && machine.getRotor(i - 1).rotates() ? 1 : 0;
+                rebase(i, lane);
+            }
+            _plugBase[lane] = lane * _size;
+            System.arraycopy(machine.plugboard().forward(), 0, _plug,
+                             lane * _size, _size);
+        }
+
+        int folded = _numRotors - 1;
+        for (int lane = 0; lane < _lanes; lane++) {
+            int k = 1;
+            while (k < folded && _rotates[k][lane] == 0) {
+                k += 1;
+            }
+            folded = Math.min(folded, k);
+        }
+        _folded = folded;
+
+        int square = _size * _size;
+        _forward = new int[wirings.size() * square];
+        _backward = new int[wirings.size() * square];
+        _notches = new int[wirings.size() * _size];
+        for (int k = 0; k < wirings.size(); k++) {
+            Wiring wiring = wirings.get(k);
+            System.arraycopy(wiring.forward(), 0, _forward, k * square,
+                             square);
+            System.arraycopy(wiring.backward(), 0, _backward, k * square,
+                             square);
+            for (int p = 0; p < _size; p++) {
+                _notches[k * _size + p] = wiring.notchAt(p) ? 1 : 0;
+            }
+        }
+        _turnaround = new int[_lanes * _size];
+        for (int lane = 0; lane < _lanes; lane++) {
+            for (int c = 0; c < _size; c++) {
+                int x = c;
+                for (int i = _folded - 1; i >= 0; i--) {
+                    x = _forward[_base[i][lane] + x];
+                }
+                for (int i = 1; i < _folded; i++) {
+                    x = _backward[_base[i][lane] + x];
+                }
+                _turnaround[lane * _size + c] = x;
+            }
+        }
+    }
+
+    /** Return the number of machines in this batch. */
+    int lanes() {
+        return _lanes;
+    }
+
+    /** Return the current settings of the rotors of lane LANE, as for
+     *  Machine.settings(). */
+    String settings(int lane) {
+        char[] result = new char[_numRotors - 1];
+        for (int i = 1; i < _numRotors; i++) {
+            result[i - 1] = _alphabet.toChar(_setting[i][lane]);
+        }
+        return new String(result);
+    }
+
+    /** Convert the LEN characters of SRC starting at OFF, all of which
+     *  must be in the alphabet, with every lane, writing the conversion
+     *  by lane K to DST[K] starting at DSTOFF. */
+    void convert(char[] src, int off, int len, char[][] dst, int dstOff) {
+        if (dst.length < _lanes) {
+            throw error("need a destination for each of %d lanes", _lanes);
+        }
+        for (int k = 0; k < len; k++) {
+            int c = _alphabet.toInt(src[off + k]);
+            if (c == Alphabet.UNKNOWN) {
+                throw error("character %c not in alphabet", src[off + k]);
+            }
+            convertLanes(c, _result);
+            for (int lane = 0; lane < _lanes; lane++) {
+                dst[lane][dstOff + k] = _alphabet.toChar(_result[lane]);
+            }
+        }
+    }
+
+    /** Return the conversions of MSG, ignoring blanks, by each lane in
+     *  turn. */
+    String[] convert(String msg) {
+        String compact = msg.replace(" ", "");
+        char[][] dst = new char[_lanes][compact.length()];
+        convert(compact.toCharArray(), 0, compact.length(), dst, 0);
+        String[] result = new String[_lanes];
+        for (int lane = 0; lane < _lanes; lane++) {
+            result[lane] = new String(dst[lane]);
+        }
+        return result;
+    }
+
+    /** Advance every lane and set OUT[LANE] to its conversion of C,
+     *  one slot of all lanes at a time. */
+    private void convertLanes(int c, int[] out) {
+        int last = _numRotors - 1;
+        int[] carry = _carry;
+        Arrays.fill(carry, 1);
+        for (int i = last; i >= _folded; i--) {
+            int[] setting = _setting[i];
+            int[] engages = _engages[i];
+            int[] notches = _notch[i];
+            int[] rotates = _rotates[i];
+            for (int lane = 0; lane < _lanes; lane++) {
+                int notch = engages[lane]
+                    & _notches[notches[lane] + setting[lane]];
+                if ((carry[lane] | notch) != 0 && rotates[lane] != 0) {
+                    int s = setting[lane] + 1;
+                    setting[lane] = s == _size ? 0 : s;
+                    rebase(i, lane);
+                }
+                carry[lane] = notch;
+            }
+        }
+        for (int lane = 0; lane < _lanes; lane++) {
+            out[lane] = _plug[_plugBase[lane] + c];
+        }
+        for (int i = last; i >= _folded; i--) {
+            int[] base = _base[i];
+            for (int lane = 0; lane < _lanes; lane++) {
+                out[lane] = _forward[base[lane] + out[lane]];
+            }
+        }
+        for (int lane = 0; lane < _lanes; lane++) {
+            out[lane] = _turnaround[_plugBase[lane] + out[lane]];
+        }
+        for (int i = _folded; i <= last; i++) {
+            int[] base = _base[i];
+            for (int lane = 0; lane < _lanes; lane++) {
+                out[lane] = _backward[base[lane] + out[lane]];
+            }
+        }
+        for (int lane = 0; lane < _lanes; lane++) {
+            out[lane] = _plug[_plugBase[lane] + out[lane]];
+        }
+    }
+
+    /** Recompute _base[I][LANE] from the setting and ring there. */
+    private void rebase(int i, int lane) {
+        _base[i][lane] = _wiring[i][lane]
+            + Math.floorMod(_setting[i][lane] - _ring[i][lane], _size)
+            * _size;
+    }
+
+    /** The common alphabet. */
+    private final Alphabet _alphabet;
+
+    /** Number of lanes. */
+    private final int _lanes;
+
+    /** Conversion results of the last step, by lane. */
+    private final int[] _result;
+
+    /** Whether each lane's rotor in the slot being stepped is pushed by
+     *  the one to its right (1) or not (0). */
+    private final int[] _carry;
+
+    /* The arrays below are indexed by slot and then lane where they have
+     * two dimensions. */
+
+    /** Size of the alphabet. */
+    private final int _size;
+
+    /** Number of rotor slots. */
+    private final int _numRotors;
+
+    /** Number of slots, starting with the reflector, that never move in
+     *  any lane, and are folded into _turnaround. */
+    private final int _folded;
+
+    /** Start of the wiring's tables in _forward and _backward. */
+    private final int[][] _wiring;
+
+    /** Rotor settings. */
+    private final int[][] _setting;
+
+    /** Ring settings. */
+    private final int[][] _ring;
+
+    /** Start of the row of _forward and _backward for the current
+     *  setting and ring. */
+    private final int[][] _base;
+
+    /** Start of the wiring's notch flags in _notches. */
+    private final int[][] _notch;
+
+    /** 1 where the rotor rotates, else 0. */
+    private final int[][] _rotates;
+
+    /** 1 where the rotor, at a notch, advances itself and the rotor to
+     *  its left, else 0. */
+    private final int[][] _engages;
+
+    /** Start of each lane's plugboard in _plug. */
+    private final int[] _plugBase;
+
+    /** Each lane's plugboard table. */
+    private final int[] _plug;
+
+    /** Each lane's composite table of its folded slots, starting at
+     *  the same place as its plugboard in _plug. */
+    private final int[] _turnaround;
+
+    /** Forward tables of every wiring used, as for Wiring.forward(). */
+    private final int[] _forward;
+
+    /** Backward tables of every wiring used. */
+    private final int[] _backward;
+
+    /** 1 where each wiring used is at a notch, by setting, else 0. */
+    private final int[] _notches;
+
+}
@@ -1,6 +1,27 @@
 package enigma;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 import org.junit.Test;
 import org.junit.Rule;
 import org.junit.rules.Timeout;
@@ -55,11 +76,11 @@ public class MachineTest {
         assertEquals(5, mach.numRotors());
         assertEquals(3, mach.numPawls());
         assertEquals(AZ, mach.alphabet());
-        assertEquals(ROTORS.get("B"), mach.getRotor(0));
-        assertEquals(ROTORS.get("Beta"), mach.getRotor(1));
-        assertEquals(ROTORS.get("III"), mach.getRotor(2));
-        assertEquals(ROTORS.get("IV"), mach.getRotor(3));
-        assertEquals(ROTORS.get("I"), mach.getRotor(4));
+        assertEquals(ROTORS.get("B").wiring(), mach.getRotor(0).wiring());
+        assertEquals(ROTORS.get("Beta").wiring(), mach.getRotor(1).wiring());
+        assertEquals(ROTORS.get("III").wiring(), mach.getRotor(2).wiring());
+        assertEquals(ROTORS.get("IV").wiring(), mach.getRotor(3).wiring());
+        assertEquals(ROTORS.get("I").wiring(), mach.getRotor(4).wiring());
     }
 
     @Test
@@ -77,4 +98,874 @@ public class MachineTest {
         assertEquals("QVPQSOKOILPUBKJZPISFXDW",
                 mach.convert("FROMHISSHOULDERHIAWATHA"));
     }
+
+    @Test
+    public void testTracer() {
+        Machine mach = mach1();
+        mach.setPlugboard(new Permutation("(YF) (HZ)", AZ));
+        int[] rotorSteps = new int[1];
+        int[] result = new int[1];
+        mach.setTracer(new TraceListener() {
+            public void start(Machine m, int c) {
+                assertEquals(24, c);
+            }
+            public void plugboard(int c) {
+                assertEquals(5, c);
+            }
+            public void rotor(Rotor r, int contact) {
+                rotorSteps[0] += 1;
+            }
+            public void finish(int c) {
+                result[0] = c;
+            }
+        });
+        assertEquals(25, mach.convert(24));
+        assertEquals(25, result[0]);
+        assertEquals(9, rotorSteps[0]);
+    }
+
+    @Test
+    public void testConvertBuffers() {
+        Machine mach = mach1();
+        mach.setPlugboard(new Permutation("(HQ) (EX) (IP) (TR) (BY)", AZ));
+        char[] buf = "FROM HIS SHOULDER HIAWATHA".toCharArray();
+        int n = mach.convert(buf, 0, buf.length, UnknownPolicy.SKIP);
+        assertEquals("QVPQSOKOILPUBKJZPISFXDW", new String(buf, 0, n));
+
+        mach = mach1();
+        mach.setPlugboard(new Permutation("(HQ) (EX) (IP) (TR) (BY)", AZ));
+        CharBuffer in = CharBuffer.wrap("FROM HIS");
+        CharBuffer out = CharBuffer.allocate(8);
+        assertEquals(8, mach.convert(in, out, UnknownPolicy.COPY));
+        assertEquals("QVPQ SOK", new String(out.array()));
+
+        mach = mach1();
+        mach.setPlugboard(new Permutation("(HQ) (EX) (IP) (TR) (BY)", AZ));
+        in = CharBuffer.wrap("FROM HIS SHOULDER".toCharArray());
+        out = CharBuffer.allocate(10);
+        assertEquals(10, mach.convert(in, out, UnknownPolicy.SKIP));
+        assertEquals("QVPQSOKOIL", new String(out.array()));
+        assertEquals(12, in.position());
+
+        mach = mach1();
+        mach.setPlugboard(new Permutation("(HQ) (EX) (IP) (TR) (BY)", AZ));
+        in = CharBuffer.wrap("FROM HIS".toCharArray());
+        out = in.duplicate();
+        assertEquals(7, mach.convert(in, out, UnknownPolicy.SKIP));
+        assertEquals("QVPQSOK", new String(in.array(), 0, 7));
+        assertEquals(8, in.position());
+        assertEquals(7, out.position());
+
+        mach = mach1();
+        mach.setPlugboard(new Permutation("(HQ) (EX) (IP) (TR) (BY)", AZ));
+        byte[] bytes = "FROM-HIS".getBytes(StandardCharsets.ISO_8859_1);
+        byte[] dst = new byte[bytes.length];
+        assertEquals(8, mach.convert(bytes, 0, dst, 0, bytes.length,
+                                     UnknownPolicy.COPY));
+        assertEquals("QVPQ-SOK",
+                     new String(dst, StandardCharsets.ISO_8859_1));
+    }
+
+    @Test
+    public void testConvertBufferRejected() {
+        CharBuffer[] sources = {
+            CharBuffer.wrap("FROM HIS".toCharArray()),
+            CharBuffer.wrap("FROM HIS"),
+        };
+        for (CharBuffer in : sources) {
+            Machine mach = mach1();
+            mach.setPlugboard(new Permutation("(HQ) (EX) (IP) (TR) (BY)",
+                                              AZ));
+            CharBuffer out = in.hasArray() ? in.duplicate()
+                : CharBuffer.allocate(8);
+            try {
+                mach.convert(in, out, UnknownPolicy.REJECT);
+                fail("converted a blank");
+            } catch (EnigmaException excp) {
+                assertEquals(4, in.position());
+                assertEquals(4, out.position());
+            }
+            in.position(5);
+            assertEquals(3, mach.convert(in, out, UnknownPolicy.REJECT));
+            out.flip();
+            assertEquals("QVPQSOK", out.toString());
+        }
+    }
+
+    @Test
+    public void testConvertBytesWideAlphabet() {
+        Alphabet wide = new Alphabet("AB\u0100");
+        ArrayList<Rotor> all = new ArrayList<>();
+        all.add(new Reflector("R", new Permutation("(A\u0100) (B)", wide)));
+        all.add(new MovingRotor("M", new Permutation("", wide), "A"));
+        Machine mach = new Machine(wide, 2, 1, all);
+        mach.insertRotors(new String[] { "R", "M" });
+        mach.setPlugboard(new Permutation("", wide));
+        byte[] bytes = { 'A', 'B' };
+        try {
+            mach.convert(bytes, 0, new byte[2], 0, 2, UnknownPolicy.REJECT);
+            fail("converted into a character that is not a byte");
+        } catch (EnigmaException excp) {
+            assertEquals("A", mach.settings());
+        }
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void testConvertBufferIntoItself() {
+        CharBuffer buf = CharBuffer.wrap("FROMHIS".toCharArray());
+        mach1().convert(buf, buf, UnknownPolicy.COPY);
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void testRejectUnknown() {
+        Machine mach = mach1();
+        mach.setPlugboard(new Permutation("", AZ));
+        char[] buf = "AB-C".toCharArray();
+        mach.convert(buf, 0, buf.length, UnknownPolicy.REJECT);
+    }
+
+    /** Return rotors named R0 .. R(NUMROTORS-1) over ALPHA, R0 being a
+     *  reflector, with types and notches drawn from SEED. */
+    private static ArrayList<Rotor> randomRotors(Alphabet alpha, int numRotors,
+                                                 long seed) {
+        Random random = new Random(seed);
+        ArrayList<Rotor> all = new ArrayList<>();
+        for (int i = 0; i < numRotors; i += 1) {
+            Permutation perm = new Permutation("", alpha);
+            if (i == 0) {
+                all.add(new Reflector("R" + i, perm));
+            } else if (random.nextInt(4) == 0) {
+                all.add(new FixedRotor("R" + i, perm));
+            } else {
+                String notches = "";
+                for (int k = 0; k < alpha.size(); k += 1) {
+                    if (random.nextInt(5) == 0) {
+                        notches += alpha.toChar(k);
+                    }
+                }
+                all.add(new MovingRotor("R" + i, perm, notches));
+            }
+        }
+        return all;
+    }
+
+    /** Return rotors as for randomRotors, but each wired by a single
+     *  cycle of ALPHA drawn from SEED. */
+    private static ArrayList<Rotor> randomWiredRotors(Alphabet alpha,
+                                                      int numRotors,
+                                                      long seed) {
+        Random random = new Random(seed);
+        ArrayList<Rotor> all = new ArrayList<>();
+        for (Rotor rotor : randomRotors(alpha, numRotors, seed)) {
+            ArrayList<Character> cycle = new ArrayList<>();
+            for (int k = 0; k < alpha.size(); k += 1) {
+                cycle.add(alpha.toChar(k));
+            }
+            Collections.shuffle(cycle, random);
+            StringBuilder cycles = new StringBuilder("(");
+            for (char ch : cycle) {
+                cycles.append(ch);
+            }
+            Permutation perm = new Permutation(cycles + ")", alpha);
+            if (rotor.reflecting()) {
+                all.add(new Reflector(rotor.name(), perm));
+            } else if (!rotor.rotates()) {
+                all.add(new FixedRotor(rotor.name(), perm));
+            } else {
+                all.add(new MovingRotor(rotor.name(), perm,
+                                        rotor.wiring().notches()));
+            }
+        }
+        return all;
+    }
+
+    @Test
+    public void testJumpMatchesStepping() {
+        Alphabet alpha = new Alphabet("ABCDEFG");
+        Random random = new Random(61);
+        for (int trial = 0; trial < 300; trial += 1) {
+            int numRotors = 2 + random.nextInt(4);
+            long seed = random.nextLong();
+            String[] names = new String[numRotors];
+            String setting = "";
+            for (int i = 0; i < numRotors; i += 1) {
+                names[i] = "R" + i;
+                if (i > 0) {
+                    setting += alpha.toChar(random.nextInt(alpha.size()));
+                }
+            }
+            int keys = random.nextInt(2000);
+            Machine stepped = new Machine(alpha, numRotors, 1,
+                    randomRotors(alpha, numRotors, seed));
+            stepped.insertRotors(names);
+            stepped.setRotors(setting);
+            stepped.setPlugboard(new Permutation("", alpha));
+            for (int k = 0; k < keys; k += 1) {
+                stepped.convert(0);
+            }
+            Machine jumped = new Machine(alpha, numRotors, 1,
+                    randomRotors(alpha, numRotors, seed));
+            jumped.insertRotors(names);
+            jumped.setRotors(setting);
+            jumped.jump(keys);
+            assertEquals("trial " + trial, stepped.settings(),
+                         jumped.settings());
+        }
+    }
+
+    @Test
+    public void testCompiledEngine() {
+        Alphabet alpha = new Alphabet("ABCDEFG");
+        Random random = new Random(67);
+        for (int trial = 0; trial < 40; trial += 1) {
+            int numRotors = 2 + random.nextInt(4);
+            long seed = random.nextLong();
+            String[] names = new String[numRotors];
+            String setting = "";
+            String ring = "";
+            for (int i = 0; i < numRotors; i += 1) {
+                names[i] = "R" + i;
+                if (i > 0) {
+                    setting += alpha.toChar(random.nextInt(alpha.size()));
+                    ring += alpha.toChar(random.nextInt(alpha.size()));
+                }
+            }
+            char[] msg = new char[500];
+            for (int k = 0; k < msg.length; k += 1) {
+                msg[k] = random.nextInt(20) == 0 ? '-'
+                    : alpha.toChar(random.nextInt(alpha.size()));
+            }
+            Machine[] machines = new Machine[2];
+            char[][] out = new char[2][msg.length];
+            for (int m = 0; m < 2; m += 1) {
+                machines[m] = new Machine(alpha, numRotors, 1,
+                        randomWiredRotors(alpha, numRotors, seed));
+                if (m == 1) {
+                    assertTrue(machines[m].compile());
+                }
+                machines[m].insertRotors(names);
+                machines[m].setRotors(setting);
+                machines[m].insertRing(ring);
+                machines[m].setPlugboard(new Permutation("(AC) (BG)",
+                                                         alpha));
+                machines[m].convert(msg, 0, out[m], 0, msg.length,
+                                    UnknownPolicy.COPY);
+            }
+            assertEquals("trial " + trial, new String(out[0]),
+                         new String(out[1]));
+            assertEquals("trial " + trial, machines[0].settings(),
+                         machines[1].settings());
+            Engine engine = EngineCompiler.compile(machines[0]);
+            if (engine != null) {
+                assertSame("trial " + trial, engine.getClass(),
+                           EngineCompiler.compile(machines[1]).getClass());
+            }
+        }
+    }
+
+    @Test
+    public void testMachineBatch() {
+        Random random = new Random(71);
+        String[][] orders = {
+            { "B", "Beta", "III", "IV", "I" },
+            { "B", "Beta", "I", "III", "IV" },
+            { "B", "Beta", "IV", "I", "III" },
+        };
+        ArrayList<Machine> machines = new ArrayList<>();
+        for (int lane = 0; lane < 11; lane += 1) {
+            Machine mach = new Machine(AZ, 5, 3, ROTORS.values());
+            mach.insertRotors(orders[lane % orders.length]);
+            String setting = "";
+            String ring = "";
+            for (int i = 0; i < 4; i += 1) {
+                setting += AZ.toChar(random.nextInt(AZ.size()));
+                ring += AZ.toChar(random.nextInt(AZ.size()));
+            }
+            mach.setRotors(setting);
+            mach.insertRing(ring);
+            mach.setPlugboard(new Permutation(
+                lane % 2 == 0 ? "(HQ) (EX) (IP)" : "(AB) (YZ)", AZ));
+            machines.add(mach);
+        }
+        char[] msg = new char[3000];
+        for (int k = 0; k < msg.length; k += 1) {
+            msg[k] = AZ.toChar(random.nextInt(AZ.size()));
+        }
+        MachineBatch batch = new MachineBatch(machines);
+        assertEquals(11, batch.lanes());
+        String[] got = batch.convert(new String(msg));
+        for (int lane = 0; lane < machines.size(); lane += 1) {
+            Machine mach = machines.get(lane);
+            assertEquals("lane " + lane, mach.convert(new String(msg)),
+                         got[lane]);
+            assertEquals("lane " + lane, mach.settings(),
+                         batch.settings(lane));
+        }
+    }
+
+    @Test
+    public void testByteEngine() {
+        Alphabet bytes = Alphabet.bytes();
+        Random random = new Random(73);
+        ArrayList<Rotor> all = new ArrayList<>();
+        String[] names = { "R", "F", "M1", "M2", "M3" };
+        for (String name : names) {
+            ArrayList<Integer> cycle = new ArrayList<>();
+            for (int k = 0; k < bytes.size(); k += 1) {
+                cycle.add(k);
+            }
+            Collections.shuffle(cycle, random);
+            StringBuilder cycles = new StringBuilder("(");
+            for (int k : cycle) {
+                cycles.append(String.format("%02x", k));
+            }
+            Permutation perm = new Permutation(cycles + ")", bytes);
+            if (name.equals("R")) {
+                all.add(new Reflector(name, perm));
+            } else if (name.equals("F")) {
+                all.add(new FixedRotor(name, perm));
+            } else {
+                all.add(new MovingRotor(name, perm,
+                                        bytes.decode("00fe10")));
+            }
+        }
+        Machine machine = new Machine(bytes, 5, 3, all);
+        machine.insertRotors(names);
+        machine.setRotors(bytes.decode("07fdfb10"));
+        machine.insertRing(bytes.decode("00051122"));
+        machine.setPlugboard(new Permutation("(0a0d) (ff00)", bytes));
+        byte[] data = new byte[200000];
+        random.nextBytes(data);
+        Machine reference = new Machine(machine);
+        byte[] expected = new byte[data.length];
+        reference.convert(data, 0, expected, 0, data.length,
+                          UnknownPolicy.REJECT);
+        ByteBuffer buf = ByteBuffer.allocateDirect(data.length);
+        buf.put(data).flip();
+        ByteEngine engine = new ByteEngine(machine);
+        engine.convert(buf);
+        byte[] got = new byte[data.length];
+        buf.get(got);
+        assertArrayEquals(expected, got);
+        engine.store(machine);
+        assertEquals(reference.settings(), machine.settings());
+    }
+
+    @Test
+    public void testJumpNaval() {
+        Machine stepped = mach1();
+        stepped.setPlugboard(new Permutation("", AZ));
+        for (int k = 0; k < 100000; k += 1) {
+            stepped.convert(0);
+        }
+        String expected = stepped.settings();
+        Machine jumped = mach1();
+        jumped.jump(100000);
+        assertEquals(expected, jumped.settings());
+    }
+
+    /** Return a machine with the reflector B and the seven naval rotors
+     *  I .. VII, all moving, set at SETTING. */
+    private Machine navalSeven(String setting) {
+        ArrayList<Rotor> all = new ArrayList<>();
+        all.add(ROTORS.get("B"));
+        String[] names = { "B", "I", "II", "III", "IV", "V", "VI", "VII" };
+        String[] notches = { "Q", "E", "V", "J", "Z", "ZM", "ZM" };
+        for (int i = 1; i < names.length; i += 1) {
+            all.add(new MovingRotor(names[i], new Permutation(
+                    TestUtils.NAVALA.get(names[i]), AZ), notches[i - 1]));
+        }
+        Machine machine = new Machine(AZ, 8, 7, all);
+        machine.insertRotors(names);
+        machine.setRotors(setting);
+        machine.setPlugboard(new Permutation("", AZ));
+        return machine;
+    }
+
+    @Test
+    public void testJumpSevenMoving() {
+        Machine stepped = navalSeven("QDUIZLM");
+        Machine jumped = navalSeven("QDUIZLM");
+        for (int k = 1; k <= 300000; k += 1) {
+            stepped.convert(0);
+            if (k % 7919 == 0) {
+                jumped.jump(7919);
+                assertEquals("after " + k, stepped.settings(),
+                             jumped.settings());
+            }
+        }
+    }
+
+    @Test
+    public void testJumpFar() {
+        long far = 1000000000000L;
+        Machine whole = navalSeven("AZQMEJV");
+        whole.jump(far);
+        Machine halves = navalSeven("AZQMEJV");
+        halves.jump(far / 3);
+        halves.jump(far - far / 3);
+        assertEquals(whole.settings(), halves.settings());
+        Machine stepped = navalSeven("AZQMEJV");
+        stepped.jump(far - 5000);
+        for (int k = 0; k < 5000; k += 1) {
+            stepped.convert(0);
+        }
+        assertEquals(whole.settings(), stepped.settings());
+        whole.jump(Long.MAX_VALUE);
+        mach1().jump(Long.MAX_VALUE);
+    }
+
+    @Test
+    public void testConvertParallel() {
+        Random random = new Random(17);
+        char[] msg = new char[5 * ConvertTask.SEGMENT + 123];
+        for (int i = 0; i < msg.length; i += 1) {
+            msg[i] = AZ.toChar(random.nextInt(AZ.size()));
+        }
+        Machine sequential = mach1();
+        sequential.setPlugboard(new Permutation("(HQ) (EX) (IP)", AZ));
+        String expected = sequential.convert(new String(msg));
+        String settings = sequential.settings();
+        Machine parallel = mach1();
+        parallel.setPlugboard(new Permutation("(HQ) (EX) (IP)", AZ));
+        parallel.convertParallel(msg, 0, msg.length, new ForkJoinPool(4));
+        assertEquals(expected, new String(msg));
+        assertEquals(settings, parallel.settings());
+    }
+
+    @Test
+    public void testKeystream() {
+        Random random = new Random(23);
+        char[] msg = new char[40000];
+        for (int i = 0; i < msg.length; i += 1) {
+            msg[i] = AZ.toChar(random.nextInt(AZ.size()));
+        }
+        Machine machine = mach1();
+        machine.setPlugboard(new Permutation("(HQ) (EX) (IP)", AZ));
+        Keystream whole = new Keystream(machine, msg.length);
+        Keystream prefix = new Keystream(machine, 100);
+        assertEquals(26 * 25 * 26, whole.period());
+        assertEquals(whole.period(), whole.steps());
+        assertEquals(0, prefix.period());
+        assertEquals(100, prefix.steps());
+        Keystream roomy = new Keystream(machine, 1 << 20);
+        assertEquals(whole.period(), roomy.steps());
+        assertEquals(26 * roomy.steps(), roomy.table().capacity());
+        String expected = new Machine(machine).convert(new String(msg));
+        char[] buf = msg.clone();
+        whole.convert(buf, 0, buf.length, 0);
+        assertEquals(expected, new String(buf));
+        buf = msg.clone();
+        prefix.convert(buf, 0, buf.length, 0);
+        assertEquals(expected, new String(buf));
+        buf = msg.clone();
+        prefix.convert(buf, 30000, 50, 30000);
+        assertEquals(expected.substring(30000, 30050),
+                     new String(buf, 30000, 50));
+    }
+
+    @Test
+    public void testKeystreamFile() throws IOException {
+        Machine machine = mach1();
+        machine.setPlugboard(new Permutation("(HQ) (EX) (IP)", AZ));
+        Keystream made = new Keystream(machine, 300);
+        Path file = Files.createTempFile("enigma", ".ks");
+        try {
+            KeystreamFile.write(file, made, machine,
+                                " * B BETA III IV I AXLE ");
+            KeystreamFile mapped = new KeystreamFile(file);
+            assertEquals("* B BETA III IV I AXLE", mapped.settings());
+            Keystream loaded = mapped.keystream(machine);
+            assertEquals(300, loaded.steps());
+            assertEquals(0, loaded.period());
+            assertEquals(made.table(), loaded.table());
+            String msg = "FROMHISSHOULDERHIAWATHATOOKTHECAMERAOFROSEWOOD";
+            char[] buf = (msg + msg).toCharArray();
+            loaded.convert(buf, 0, buf.length, 280);
+            assertEquals(new Machine(machine).convert("X".repeat(280)
+                                                      + msg + msg)
+                         .substring(280), new String(buf));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void testKeystreamFileOtherWiring() throws IOException {
+        Machine machine = mach1();
+        machine.setPlugboard(new Permutation("(HQ) (EX) (IP)", AZ));
+        Path file = Files.createTempFile("enigma", ".ks");
+        try {
+            KeystreamFile.write(file, new Keystream(machine, 300), machine,
+                                "* B BETA III IV I AXLE (HQ) (EX) (IP)");
+            HashMap<String, Rotor> rewired = new HashMap<>(ROTORS);
+            rewired.put("III",
+                        new MovingRotor("III",
+                                        new Permutation(TestUtils.NAVALA
+                                                        .get("II"), AZ),
+                                        "V"));
+            Machine other = new Machine(AZ, 5, 3, rewired.values());
+            other.insertRotors(ROTORS1);
+            other.setRotors(SETTING1);
+            other.setPlugboard(new Permutation("(HQ) (EX) (IP)", AZ));
+            new KeystreamFile(file).keystream(other);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testRangeConverter() throws IOException {
+        Random random = new Random(29);
+        char[] msg = new char[200000];
+        for (int i = 0; i < msg.length; i += 1) {
+            msg[i] = AZ.toChar(random.nextInt(AZ.size()));
+        }
+        Machine machine = mach1();
+        machine.setPlugboard(new Permutation("(HQ) (EX) (IP)", AZ));
+        String expected = new Machine(machine).convert(new String(msg));
+        Path file = Files.createTempFile("enigma", ".raw");
+        try {
+            Files.write(file, new String(msg).getBytes(
+                                  StandardCharsets.ISO_8859_1));
+            RangeConverter ranges = new RangeConverter(machine);
+            try (FileChannel in = FileChannel.open(file)) {
+                assertEquals(expected.substring(123457, 190001),
+                             new String(ranges.convert(in, 123457, 190001),
+                                        StandardCharsets.ISO_8859_1));
+                assertEquals(expected.substring(0, 10),
+                             new String(ranges.convert(in, 0, 10),
+                                        StandardCharsets.ISO_8859_1));
+                assertEquals(0, ranges.convert(in, 5, 5).length);
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void testRangeOutsideFile() throws IOException {
+        Path file = Files.createTempFile("enigma", ".raw");
+        try (FileChannel in = FileChannel.open(file)) {
+            new RangeConverter(mach1()).convert(in, 0, 1);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testCribSearch() {
+        String board = "(HQ) (EX) (IP) (TR) (BY) (AZ)";
+        Machine mach = new Machine(AZ, 4, 2, ROTORS.values());
+        mach.insertRotors(new String[] { "B", "Beta", "IV", "I" });
+        mach.setRotors("DPM");
+        mach.setPlugboard(new Permutation(board, AZ));
+        String plain = "WEATHERREPORTFORTHENORTHSEAATDAWNTODAYNOCHANGE";
+        String cipher = mach.convert(plain);
+        CribSearch search =
+            new CribSearch(mach, cipher, plain.substring(5, 35), 5);
+        assertEquals(6 * 26 * 26 * 26, search.candidates());
+        ArrayList<String> found = new ArrayList<>();
+        for (String stop : search.run(ForkJoinPool.commonPool())) {
+            if (stop.startsWith("* B Beta IV I DPM")) {
+                found.add(stop);
+            }
+        }
+        assertEquals(search.candidates(), search.tried());
+        assertEquals(1, found.size());
+        String[] pairs = found.get(0).substring(17).trim().split(" ");
+        assertTrue(pairs.length > 1);
+        for (String pair : pairs) {
+            String swapped = "(" + pair.charAt(2) + pair.charAt(1) + ")";
+            assertTrue(pair, board.contains(pair) || board.contains(swapped));
+        }
+    }
+
+    /** English text enciphered by testHillClimb. */
+    private static final String ENGLISH =
+        "It is a truth universally acknowledged, that a single man in "
+        + "possession of a good fortune, must be in want of a wife. However "
+        + "little known the feelings or views of such a man may be on his "
+        + "first entering a neighbourhood, this truth is so well fixed in "
+        + "the minds of the surrounding families, that he is considered as "
+        + "the rightful property of some one or other of their daughters. "
+        + "My dear Mr. Bennet, said his lady to him one day, have you heard "
+        + "that Netherfield Park is let at last? Mr. Bennet replied that he "
+        + "had not. But it is, returned she; for Mrs. Long has just been "
+        + "here, and she told me all about it. Mr. Bennet made no answer. "
+        + "Do not you want to know who has taken it? cried his wife "
+        + "impatiently. You want to tell me, and I have no objection to "
+        + "hearing it. This was invitation enough.";
+
+    /** English text, not overlapping ENGLISH, from which testHillClimb
+     *  scores trigrams. */
+    private static final String TRAINING =
+        "It was the best of times, it was the worst of times, it was the "
+        + "age of wisdom, it was the age of foolishness, it was the epoch "
+        + "of belief, it was the epoch of incredulity, it was the season "
+        + "of Light, it was the season of Darkness, it was the spring of "
+        + "hope, it was the winter of despair, we had everything before "
+        + "us, we had nothing before us, we were all going direct to "
+        + "Heaven, we were all going direct the other way. In short, the "
+        + "period was so far like the present period, that some of its "
+        + "noisiest authorities insisted on its being received, for good "
+        + "or for evil, in the superlative degree of comparison only. Call "
+        + "me Ishmael. Some years ago, never mind how long precisely, "
+        + "having little or no money in my purse, and nothing particular "
+        + "to interest me on shore, I thought I would sail about a little "
+        + "and see the watery part of the world. It is a way I have of "
+        + "driving off the spleen and regulating the circulation. Whenever "
+        + "I find myself growing grim about the mouth; whenever it is a "
+        + "damp, drizzly November in my soul; whenever I find myself "
+        + "involuntarily pausing before coffin warehouses, and bringing up "
+        + "the rear of every funeral I meet; and especially whenever my "
+        + "hypos get such an upper hand of me, that it requires a strong "
+        + "moral principle to prevent me from deliberately stepping into "
+        + "the street, and methodically knocking people's hats off, then, "
+        + "I account it high time to get to sea as soon as I can. Four "
+        + "score and seven years ago our fathers brought forth on this "
+        + "continent, a new nation, conceived in Liberty, and dedicated to "
+        + "the proposition that all men are created equal. Now we are "
+        + "engaged in a great civil war, testing whether that nation, or "
+        + "any nation so conceived and so dedicated, can long endure. We "
+        + "are met on a great battle field of that war. We have come to "
+        + "dedicate a portion of that field, as a final resting place for "
+        + "those who here gave their lives that that nation might live. It "
+        + "is altogether fitting and proper that we should do this.";
+
+    @Test
+    public void testHillClimb() throws IOException {
+        Path file = Files.createTempFile("enigma", ".ngrams");
+        try {
+            NgramTable.write(file, AZ, 3, TRAINING);
+            NgramTable ngrams = new NgramTable(file);
+            assertEquals(3, ngrams.order());
+            Machine mach = new Machine(AZ, 3, 2, ROTORS.values());
+            mach.insertRotors(new String[] { "B", "IV", "I" });
+            mach.setRotors("QN");
+            mach.insertRing("FC");
+            mach.setPlugboard(new Permutation("(AO) (TX) (HW)", AZ));
+            String plain = ENGLISH.toUpperCase().replaceAll("[^A-Z]", "")
+                .substring(0, 400);
+            String cipher = mach.convert(plain);
+            HillClimb solver = new HillClimb(mach, cipher, ngrams);
+            for (long seed = 1; seed <= 3; seed += 1) {
+                String best = solver.run(ForkJoinPool.commonPool(), 20, seed);
+                assertEquals(20, solver.restartsDone());
+                assertTrue(solver.evaluations() > 0);
+                String[] fields = best.split(" ", 7);
+                Machine found = new Machine(AZ, 3, 2, ROTORS.values());
+                found.insertRotors(Arrays.copyOfRange(fields, 1, 4));
+                found.setRotors(fields[4]);
+                found.insertRing(fields[5]);
+                found.setPlugboard(new Permutation(
+                    fields.length > 6 ? fields[6] : "", AZ));
+                assertEquals("seed " + seed, plain, found.convert(cipher));
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    /** Set up MACH from the setting line LINE, which names the rotors
+     *  of ROTORS1 and gives their positions and plugboard. */
+    private static void setUpMach1(Machine mach, String line) {
+        String[] fields = line.split(" ", 8);
+        mach.insertRotors(Arrays.copyOfRange(fields, 1, 6));
+        mach.setRotors(fields[6]);
+        mach.setPlugboard(new Permutation(
+            fields.length > 7 ? fields[7] : "", AZ));
+    }
+
+    /** Send LINES to a server on CLIENT at once and return its
+     *  answers. */
+    private static String exchange(SocketChannel client, String lines)
+        throws IOException {
+        client.write(StandardCharsets.UTF_8.encode(lines));
+        long expected = lines.chars().filter(c -> c == '\n').count();
+        StringBuilder answers = new StringBuilder();
+        ByteBuffer buf = ByteBuffer.allocate(1024);
+        long received = 0;
+        while (received < expected && client.read(buf) >= 0) {
+            buf.flip();
+            String text = StandardCharsets.UTF_8.decode(buf).toString();
+            answers.append(text);
+            received += text.chars().filter(c -> c == '\n').count();
+            buf.clear();
+        }
+        return answers.toString();
+    }
+
+    @Test
+    public void testServer() throws Exception {
+        EnigmaServer server = new EnigmaServer(
+            new Machine(AZ, 5, 3, ROTORS.values()),
+            MachineTest::setUpMach1,
+            new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        Thread thread = new Thread(() -> {
+            try {
+                server.run();
+            } catch (IOException excp) {
+                throw new UncheckedIOException(excp);
+            }
+        });
+        thread.start();
+        try (SocketChannel first = SocketChannel.open(server.address());
+             SocketChannel second = SocketChannel.open(server.address())) {
+            String setting = "* B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)";
+            assertEquals("OK\nQVPQS OKOIL\n",
+                         exchange(first, setting + "\nFROM HISSHO\n"));
+            assertEquals("OK\n", exchange(second, setting + "\n"));
+            assertEquals("PUBKJ ZPISF XDW\n",
+                         exchange(first, "ULDERHIAWATHA\n"));
+            assertEquals("QVPQS OKOIL\n", exchange(second, "FROMHISSHO\n"));
+            assertEquals("\n", exchange(second, "\n"));
+            assertTrue(exchange(second, "abc\n").startsWith("ERROR "));
+            assertEquals(2, server.sessions());
+        } finally {
+            server.close();
+            thread.join();
+        }
+    }
+
+    /** Append to OUT a worker job frame with the UTF-8 FIELDS. */
+    private static void writeJob(DataOutputStream out, String... fields)
+        throws IOException {
+        ByteArrayOutputStream frame = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(frame);
+        for (String field : fields) {
+            byte[] bytes = field.getBytes(StandardCharsets.UTF_8);
+            data.writeInt(bytes.length);
+            data.write(bytes);
+        }
+        out.writeInt(frame.size());
+        frame.writeTo(out);
+    }
+
+    @Test
+    public void testWorker() throws IOException {
+        Path config = Files.createTempFile("enigma", ".conf");
+        try {
+            HashMap<String, String> nav = TestUtils.NAVALA;
+            Files.writeString(config, String.join("\n",
+                TestUtils.UPPER_STRING, "5 3",
+                "I MQ " + nav.get("I"), "III MV " + nav.get("III"),
+                "IV MJ " + nav.get("IV"), "Beta N " + nav.get("Beta"),
+                "B R " + nav.get("B"), ""));
+            String setting = "* B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)";
+            ByteArrayOutputStream jobs = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(jobs);
+            writeJob(out, config.toString(), setting,
+                     "FROM HISSHO\nULDERHIAWATHA\n");
+            writeJob(out, config.toString(), "* B Beta III IV II AXLE", "A");
+            writeJob(out, config.toString(), setting, "\nFROMHISSHO");
+            Main worker = new Main(List.of());
+            ByteArrayOutputStream results = new ByteArrayOutputStream();
+            worker.runWorker(new ByteArrayInputStream(jobs.toByteArray()),
+                             results);
+            DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(results.toByteArray()));
+            String[] expected = {
+                "QVPQS OKOIL\nPUBKJ ZPISF XDW\n", null, "\nQVPQS OKOIL\n",
+            };
+            for (String text : expected) {
+                byte[] frame = new byte[in.readInt()];
+                in.readFully(frame);
+                String result = new String(frame, 1, frame.length - 1,
+                                           StandardCharsets.UTF_8);
+                assertEquals(text == null ? 1 : 0, frame[0]);
+                if (text != null) {
+                    assertEquals(text.replace("\n", System.lineSeparator()),
+                                 result);
+                }
+            }
+            assertEquals(0, in.available());
+
+            jobs.reset();
+            writeJob(out, config.toString(), setting, "FROMHISSHO");
+            out.writeInt(-5);
+            writeJob(out, config.toString(), setting, "FROMHISSHO");
+            results.reset();
+            try {
+                worker.runWorker(new ByteArrayInputStream(jobs.toByteArray()),
+                                 results);
+                fail("corrupt job stream accepted");
+            } catch (EnigmaException excp) {
+                in = new DataInputStream(
+                    new ByteArrayInputStream(results.toByteArray()));
+                for (int status = 0; status < 2; status += 1) {
+                    byte[] frame = new byte[in.readInt()];
+                    in.readFully(frame);
+                    assertEquals(status, frame[0]);
+                }
+                assertEquals(0, in.available());
+            }
+        } finally {
+            Files.delete(config);
+        }
+    }
+
+    @Test
+    public void testSettings() {
+        Machine first = new Machine(AZ, 5, 3, ROTORS.values());
+        Machine second = new Machine(AZ, 5, 3, ROTORS.values());
+        Settings settings = new Settings(
+            " * B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY) ", first);
+        assertEquals(5, settings.numRotors());
+        assertTrue(settings.fits(new Machine(first)));
+        assertFalse(settings.fits(second));
+        settings.apply(first);
+        assertEquals("QVPQSOKOIL", first.convert("FROMHISSHO"));
+        Rotor fast = first.getRotor(4);
+        settings.apply(second);
+        settings.apply(first);
+        assertSame(fast, first.getRotor(4));
+        assertEquals("QVPQSOKOIL", first.convert("FROMHISSHO"));
+        assertEquals("QVPQSOKOIL", second.convert("FROMHISSHO"));
+        new Settings("* B Beta III IV I AXLE BBBB (HQ)", first).apply(first);
+        assertEquals("AXLE", first.settings());
+        assertEquals(1, first.getRotor(4).ring());
+        Machine fresh = mach1();
+        fresh.insertRing("BBBB");
+        fresh.setPlugboard(new Permutation("(HQ)", AZ));
+        assertEquals(fresh.convert("FROMHISSHOULDER"),
+                     first.convert("FROMHISSHOULDER"));
+        settings.apply(first);
+        assertEquals(0, first.getRotor(4).ring());
+        assertEquals("QVPQSOKOIL", first.convert("FROMHISSHO"));
+        new Settings("* B Beta I IV III AXLE", first).apply(first);
+        fresh.insertRotors(new String[] { "B", "Beta", "I", "IV", "III" });
+        fresh.setRotors(SETTING1);
+        fresh.setPlugboard(new Permutation("", AZ));
+        assertEquals(fresh.convert("FROMHISSHOULDER"),
+                     first.convert("FROMHISSHOULDER"));
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void testDuplicatedRotors() {
+        new Settings("* B Beta III IV III AXLE", mach1());
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void testShortRing() {
+        new Settings("* B Beta III IV I AXLE BB (HQ)", mach1());
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void testUnmatchedRotor() {
+        mach1().insertRotors(new String[] { "B", "Beta", "III", "IV", "X" });
+    }
+
+    @Test
+    public void testSharedLibrary() {
+        Machine first = mach1();
+        first.setPlugboard(new Permutation("(HQ) (EX) (IP) (TR) (BY)", AZ));
+        Machine second = mach1();
+        second.setPlugboard(new Permutation("(HQ) (EX) (IP) (TR) (BY)", AZ));
+        assertEquals("QVPQSOKOIL", first.convert("FROMHISSHO"));
+        second.setRotors("BBBB");
+        assertEquals("PUBKJZPISFXDW", first.convert("ULDERHIAWATHA"));
+        assertEquals("AXLE", mach1().settings());
+        assertEquals(0, ROTORS.get("I").setting());
+    }
 }
@@ -1,13 +1,54 @@
 package enigma;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintStream;
 
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.UnixDomainSocketAddress;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 
 import ucb.util.CommandArgs;
@@ -17,7 +58,7 @@ import static enigma.EnigmaException.*;
 /** Enigma simulator.
  *  @author Hanqi Xiong
  */
-public final class Main {
+public final class Main implements Closeable {
 
     /** Process a sequence of encryptions and decryptions, as
      *  specified by ARGS, where 1 <= ARGS.length <= 3.
@@ -27,18 +68,129 @@ public final class Main {
      *  input.  ARGS[2] is optional; when present, it names an output
      *  file for processed messages.  Otherwise, output goes to the
      *  standard output. Exits normally if there are no errors in the input;
-     *  otherwise with code 1. */
+     *  otherwise with code 1.  With --stream, input is converted as it is
+     *  read rather than a line at a time.  With --parallel, long messages
+     *  are converted in segments on all available cores.  With --jobs=N,
+     *  the sections of input begun by each setting line are converted
+     *  concurrently on N threads; this cannot be traced by --verbose.
+     *  With --keystream=N, the first N substitutions made under each
+     *  distinct setting line (or all of them, if they repeat sooner) are
+     *  computed once and reused.  With
+     *  --keystream-file=F, the keystream saved in F by KeystreamFile is
+     *  used for the setting line that produced it.  Neither may be
+     *  combined with --verbose, --stream, --jobs, or the modes below
+     *  (--compile is not a mode).  With --seek=I,J and
+     *  --setting=S, INPUT is instead a file of raw keystrokes to be
+     *  converted from setting line S, of which only positions I to J-1
+     *  are converted and written, followed by a line break.  With
+     *  --compile, messages are converted by code generated for each
+     *  arrangement of rotors (see EngineCompiler).  With --bytes and
+     *  --setting=S, INPUT (by default the standard input) is converted
+     *  byte for byte, from setting line S, into OUTPUT; the
+     *  configuration must then declare the byte alphabet, "@bytes", and
+     *  write characters in configurations and settings as pairs of hex
+     *  digits.  With --crib=OFFSET:CRIB (OFFSET defaulting to 0), INPUT
+     *  is ciphertext whose characters from position OFFSET on encipher
+     *  CRIB under an unknown setting; the stops of a CribSearch for it
+     *  are written to OUTPUT as setting lines, one per line, and a
+     *  summary of the search to the standard error.  --jobs=N then
+     *  gives the number of threads searching.  With --solve=R,
+     *  --ngrams=F and --setting=S, INPUT is ciphertext enciphered by the
+     *  rotors named in S under unknown positions, rings and plugboard;
+     *  a HillClimb scored by the NgramTable in file F makes R restarts
+     *  (on N threads with --jobs=N), reports its progress to the standard
+     *  error, and writes the best setting line and decryption found.
+     *  With --serve=ADDRESS, an EnigmaServer converts for clients at
+     *  ADDRESS, which is a port on the loopback interface, HOST:PORT, or
+     *  the path of a Unix domain socket (any argument containing "/"),
+     *  until the process is stopped.  With --worker, and no other
+     *  arguments, jobs are read from the standard input and their results
+     *  written to the standard output until the input ends (see
+     *  runWorker), so that one process can serve many jobs. */
     public static void main(String... args) {
         try {
             CommandArgs options =
-                new CommandArgs("--verbose --=(.*){1,3}", args);
-            if (!options.ok()) {
-                throw error("Usage: java enigma.Main [--verbose] "
-                            + "[INPUT [OUTPUT]]");
+                new CommandArgs("--verbose --stream --parallel --jobs=(\\d+) "
+                                + "--keystream=(\\d+) --keystream-file=(.+) "
+                                + "--seek=(\\d+,\\d+) --setting=(.+) --compile "
+                                + "--bytes --crib=(.+) --solve=(\\d+) "
+                                + "--ngrams=(.+) --serve=(.+) --worker "
+                                + "--=(.*){0,3}", args);
+            if (!options.ok()
+                || options.get("--").isEmpty()
+                   != options.contains("--worker")) {
+                throw error("Usage: java enigma.Main [--verbose] [--stream] "
+                            + "[--parallel] [--jobs=N] [--keystream=N] "
+                            + "[--keystream-file=F] "
+                            + "[--seek=I,J --setting=S] [--compile] "
+                            + "[--bytes --setting=S] "
+                            + "[--crib=[OFFSET:]CRIB] "
+                            + "[--solve=R --ngrams=F --setting=S] "
+                            + "[--serve=ADDRESS] "
+                            + "CONFIG [INPUT [OUTPUT]] | "
+                            + "java enigma.Main [--compile] --worker");
             }
 
             _verbose = options.contains("--verbose");
-            new Main(options.get("--")).process();
+            Main main = new Main(options.get("--"));
+            main._compile = options.contains("--compile");
+            if (options.contains("--parallel")) {
+                main._pool = ForkJoinPool.commonPool();
+            }
+            if (options.contains("--keystream")
+                || options.contains("--keystream-file")) {
+                for (String mode : KEYSTREAM_CONFLICTS) {
+                    if (options.contains(mode)) {
+                        throw error("--keystream and --keystream-file "
+                                    + "cannot be used with %s", mode);
+                    }
+                }
+            }
+            if (options.contains("--keystream")) {
+                main._keystreamSteps = intOption(options, "--keystream");
+            }
+            if (options.contains("--keystream-file")) {
+                main._keystreamFile = new KeystreamFile(
+                    Paths.get(options.getFirst("--keystream-file")));
+            }
+            int threads = options.contains("--jobs")
+                ? intOption(options, "--jobs") : 0;
+            if (options.contains("--worker")) {
+                main.runWorker(System.in, System.out);
+            } else if (options.contains("--serve")) {
+                main.processServe(options.getFirst("--serve"));
+            } else if (options.contains("--crib")) {
+                main.processCrib(options.getFirst("--crib"), threads);
+            } else if (options.contains("--solve")) {
+                if (!options.contains("--ngrams")
+                    || !options.contains("--setting")) {
+                    throw error("--solve requires --ngrams and --setting");
+                }
+                main.processSolve(
+                    intOption(options, "--solve"),
+                    options.getFirst("--ngrams"),
+                    options.getFirst("--setting"), threads);
+            } else if (options.contains("--bytes")) {
+                if (!options.contains("--setting")) {
+                    throw error("--bytes requires --setting");
+                }
+                main.processBytes(options.getFirst("--setting"));
+            } else if (options.contains("--seek")) {
+                if (!options.contains("--setting")) {
+                    throw error("--seek requires --setting");
+                }
+                main.processSeek(options.getFirst("--seek"),
+                                 options.getFirst("--setting"));
+            } else if (options.contains("--stream")) {
+                main.processStream();
+            } else if (options.contains("--jobs")) {
+                if (_verbose) {
+                    throw error("--jobs cannot be used with --verbose");
+                }
+                main.processSections(threads);
+            } else {
+                main.process();
+            }
             return;
         } catch (EnigmaException excp) {
             System.err.printf("Error: %s%n", excp.getMessage());
@@ -46,24 +198,55 @@ public final class Main {
         System.exit(1);
     }
 
+    /** Return the value of OPTION in OPTIONS, which must contain it, as
+     *  an int. */
+    private static int intOption(CommandArgs options, String option) {
+        String value = options.getFirst(option);
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException excp) {
+            throw error("bad %s value: %s", option, value);
+        }
+    }
+
     /** Open the necessary files for non-option arguments ARGS (see comment
       *  on main). */
     Main(List<String> args) {
-        _config = getInput(args.get(0));
+        _config = args.isEmpty() ? null : getInput(args.get(0));
 
         if (args.size() > 1) {
-            _input = getInput(args.get(1));
+            _inputName = args.get(1);
+            if (!new File(_inputName).canRead()) {
+                throw error("could not open %s", _inputName);
+            }
         } else {
-            _input = new Scanner(System.in);
+            _inputName = null;
         }
 
         if (args.size() > 2) {
-            _output = getOutput(args.get(2));
+            _outputName = args.get(2);
+            _output = getOutput(_outputName);
         } else {
+            _outputName = null;
             _output = System.out;
         }
     }
 
+    /** Close the configuration, input and output files I opened.  The
+     *  standard input and output are left open. */
+    @Override
+    public void close() {
+        if (_config != null) {
+            _config.close();
+        }
+        if (_input != null && _inputName != null) {
+            _input.close();
+        }
+        if (_outputName != null) {
+            _output.close();
+        }
+    }
+
     /** Return a Scanner reading from the file named NAME. */
     private Scanner getInput(String name) {
         try {
@@ -85,8 +268,13 @@ public final class Main {
     /** Configure an Enigma machine from the contents of configuration
      *  file _config and apply it to the messages in _input, sending the
      *  results to _output. */
-    private void process() {
+    void process() {
         Machine machine = readConfig();
+        if (verbose()) {
+            machine.setTracer(new VerboseTrace(System.err));
+        }
+        _input = _inputName == null ? new Scanner(System.in)
+            : getInput(_inputName);
         while (_input.hasNextLine()) {
             String next = _input.nextLine();
             if (next.isEmpty()) {
@@ -94,18 +282,496 @@ public final class Main {
             }
             if (next.startsWith("*")) {
                 setUp(machine, next);
+                _keystream = keystream(machine, next);
+                _position = 0;
+            } else if (_keystream != null) {
+                printMessageLine(convertKeystream(next));
+            } else if (_pool != null) {
+                printMessageLine(machine.convertParallel(next, _pool));
             } else {
                 printMessageLine(machine.convert(next));
             }
         }
     }
 
+    /** Return the keystream of MACHINE, which has just been set up by
+     *  the setting line SETTINGS, reusing the one computed for an
+     *  earlier identical line if it is still cached, or the one in
+     *  _keystreamFile if that was made by the same line.  Returns null
+     *  if MACHINE should convert messages itself. */
+    private Keystream keystream(Machine machine, String settings) {
+        String key = settings.trim();
+        if (_keystreamFile != null && key.equals(_keystreamFile.settings())) {
+            if (_fileKeystream == null) {
+                _fileKeystream = _keystreamFile.keystream(machine);
+            }
+            return _fileKeystream;
+        }
+        if (_keystreamSteps == 0) {
+            return null;
+        }
+        return _keystreams.computeIfAbsent(key,
+            k -> new Keystream(machine, _keystreamSteps));
+    }
+
+    /** Return the conversion of MSG, ignoring blanks, by _keystream,
+     *  continuing from _position. */
+    private String convertKeystream(String msg) {
+        char[] buf = msg.toCharArray();
+        int len = 0;
+        for (int i = 0; i < buf.length; i++) {
+            if (buf[i] != ' ') {
+                buf[len++] = buf[i];
+            }
+        }
+        _keystream.convert(buf, 0, len, _position);
+        _position += len;
+        return new String(buf, 0, len);
+    }
+
+    /** Search for the settings under which the ciphertext in the input
+     *  enciphers the crib described by SPEC, which is OFFSET:CRIB or just
+     *  CRIB, and write the stops.  The search runs on THREADS threads, or
+     *  on the common pool if THREADS is 0. */
+    private void processCrib(String spec, int threads) {
+        Matcher parts = CRIB_SPEC.matcher(spec);
+        if (!parts.matches()) {
+            throw error("bad crib %s", spec);
+        }
+        int offset;
+        try {
+            offset = parts.group(1) == null ? 0
+                : Integer.parseInt(parts.group(1));
+        } catch (NumberFormatException excp) {
+            throw error("bad crib %s", spec);
+        }
+        Machine machine = readConfig();
+        if (_alphabet.isBytes()) {
+            throw error("--crib does not support the byte alphabet");
+        }
+        CribSearch search = new CribSearch(machine, readCiphertext(),
+                                           parts.group(2), offset);
+        ForkJoinPool pool = threads > 0 ? new ForkJoinPool(threads)
+            : ForkJoinPool.commonPool();
+        long start = System.nanoTime();
+        List<String> stops;
+        try {
+            stops = search.run(pool);
+        } finally {
+            if (threads > 0) {
+                pool.shutdown();
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        for (String stop : stops) {
+            _output.println(stop);
+        }
+        _output.flush();
+        System.err.printf("%d candidates in %.2f s (%.0f/s), %d stops%n",
+                          search.tried(), seconds,
+                          search.tried() / Math.max(seconds, 1e-9),
+                          stops.size());
+    }
+
+    /** Hill-climb for the positions, rings and plugboard, used with the
+     *  rotors named in the setting line SETTINGS, that make the
+     *  ciphertext in the input most like the text whose n-grams are in
+     *  the file NGRAMS, making RESTARTS restarts on THREADS threads (or
+     *  the common pool if THREADS is 0).  Writes the best setting line
+     *  and the decryption under it, and reports progress every second
+     *  to the standard error. */
+    private void processSolve(int restarts, String ngrams, String settings,
+                              int threads) {
+        Machine machine = readConfig();
+        setUp(machine, settings);
+        String ciphertext = readCiphertext();
+        HillClimb solver = new HillClimb(machine, ciphertext,
+                                         new NgramTable(Paths.get(ngrams)));
+        ForkJoinPool pool = threads > 0 ? new ForkJoinPool(threads)
+            : ForkJoinPool.commonPool();
+        ScheduledExecutorService reporter =
+            Executors.newSingleThreadScheduledExecutor(task -> {
+                Thread thread = new Thread(task, "solver progress");
+                thread.setDaemon(true);
+                return thread;
+            });
+        long start = System.nanoTime();
+        reporter.scheduleAtFixedRate(() -> reportProgress(solver, start),
+                                     1, 1, TimeUnit.SECONDS);
+        String best;
+        try {
+            best = solver.run(pool, restarts, SOLVE_SEED);
+        } finally {
+            reporter.shutdownNow();
+            if (threads > 0) {
+                pool.shutdown();
+            }
+        }
+        reportProgress(solver, start);
+        if (best == null) {
+            return;
+        }
+        setUp(machine, best);
+        _output.println(best);
+        printMessageLine(machine.convert(ciphertext.replace(" ", "")));
+        _output.flush();
+    }
+
+    /** Write the progress of SOLVER, which began at System.nanoTime()
+     *  START, to the standard error. */
+    private static void reportProgress(HillClimb solver, long start) {
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.err.printf("%d/%d restarts, %d evaluations in %.1f s "
+                          + "(%.0f/s), best score %.2f%n",
+                          solver.restartsDone(), solver.restarts(),
+                          solver.evaluations(), seconds,
+                          solver.evaluations() / Math.max(seconds, 1e-9),
+                          solver.bestScore());
+    }
+
+    /** Serve conversions at ADDRESS (see main) until stopped. */
+    private void processServe(String address) {
+        Machine prototype = readConfig();
+        SocketAddress socket;
+        if (address.contains("/")) {
+            socket = UnixDomainSocketAddress.of(address);
+        } else {
+            int colon = address.lastIndexOf(':');
+            try {
+                int port = Integer.parseInt(address.substring(colon + 1));
+                socket = colon < 0
+                    ? new InetSocketAddress(InetAddress.getLoopbackAddress(),
+                                            port)
+                    : new InetSocketAddress(address.substring(0, colon),
+                                            port);
+            } catch (IllegalArgumentException excp) {
+                throw error("bad address %s", address);
+            }
+        }
+        try (EnigmaServer server =
+             new EnigmaServer(prototype, this::setUp, socket)) {
+            System.err.printf("listening on %s%n", server.address());
+            server.run();
+        } catch (IOException excp) {
+            throw error("server failed: %s", excp.getMessage());
+        }
+    }
+
+    /** Run jobs read from IN, writing their results to OUT, until IN
+     *  ends.  A job is a frame consisting of a big-endian int giving the
+     *  number of bytes that follow, then three fields, each an int
+     *  length followed by that many bytes of UTF-8: the name of a
+     *  configuration file, a setting line, and a payload of input lines
+     *  for the configured machine as set up by the setting line.  Its
+     *  result is a frame of an int length, then a status byte, then
+     *  UTF-8 text: for status 0, the output of converting the payload;
+     *  for status 1, the reason the job failed, after which the worker
+     *  continues with the next job.  A job longer than MAX_JOB bytes is
+     *  skipped and fails; a negative length means the input is corrupt,
+     *  and ends the worker after a failed result.  Configurations are
+     *  parsed once and kept (see configured) while their files are
+     *  unchanged.  OUT is flushed whenever no further job is waiting. */
+    void runWorker(InputStream in, OutputStream out) {
+        DataInputStream jobs =
+            new DataInputStream(new BufferedInputStream(in, WORKER_BUFFER));
+        DataOutputStream results =
+            new DataOutputStream(new BufferedOutputStream(out,
+                                                          WORKER_BUFFER));
+        try {
+            while (true) {
+                int length;
+                try {
+                    length = jobs.readInt();
+                } catch (EOFException excp) {
+                    break;
+                }
+                if (length < 0) {
+                    writeResult(results, (byte) 1,
+                                "bad job length " + length);
+                    results.flush();
+                    throw error("corrupt job stream");
+                }
+                if (length > MAX_JOB) {
+                    jobs.skipNBytes(length);
+                    writeResult(results, (byte) 1,
+                                "job of " + length + " bytes is too long");
+                } else {
+                    byte[] frame = new byte[length];
+                    jobs.readFully(frame);
+                    byte status = 0;
+                    String result;
+                    try {
+                        ByteBuffer fields = ByteBuffer.wrap(frame);
+                        String config = field(fields);
+                        String settings = field(fields);
+                        String payload = field(fields);
+                        result = runJob(config, settings, payload);
+                    } catch (RuntimeException excp) {
+                        status = 1;
+                        result = excp.getMessage() == null ? excp.toString()
+                            : excp.getMessage();
+                    }
+                    writeResult(results, status, result);
+                }
+                if (jobs.available() == 0) {
+                    results.flush();
+                }
+            }
+            results.flush();
+        } catch (IOException excp) {
+            throw error("worker failed: %s", excp.getMessage());
+        }
+    }
+
+    /** Write to RESULTS the result frame with status STATUS and text
+     *  TEXT. */
+    private static void writeResult(DataOutputStream results, byte status,
+                                    String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        results.writeInt(bytes.length + 1);
+        results.writeByte(status);
+        results.write(bytes);
+    }
+
+    /** Return the next length-prefixed UTF-8 string in FIELDS. */
+    private static String field(ByteBuffer fields) {
+        if (fields.remaining() < 4) {
+            throw error("truncated job");
+        }
+        int length = fields.getInt();
+        if (length < 0 || length > fields.remaining()) {
+            throw error("truncated job");
+        }
+        String result = new String(fields.array(), fields.position(),
+                                   length, StandardCharsets.UTF_8);
+        fields.position(fields.position() + length);
+        return result;
+    }
+
+    /** Return the output of converting PAYLOAD, as for process(), with
+     *  the machine described by the configuration file CONFIG set up by
+     *  the setting line SETTINGS. */
+    String runJob(String config, String settings, String payload) {
+        Main parser = configured(config);
+        Machine machine = new Machine(parser._prototype);
+        ArrayList<String> lines = new ArrayList<>();
+        lines.add(settings);
+        if (!payload.isEmpty()) {
+            lines.addAll(Arrays.asList(payload.split("\\r?\\n", -1)));
+            if (payload.endsWith("\n")) {
+                lines.remove(lines.size() - 1);
+            }
+        }
+        return parser.convertSection(machine, lines);
+    }
+
+    /** Return a Main holding in _prototype the machine configured by
+     *  the file CONFIG, reusing the one made for the same file if that
+     *  has not been modified since. */
+    private Main configured(String config) {
+        Path file = Paths.get(config);
+        FileTime modified;
+        try {
+            modified = Files.getLastModifiedTime(file);
+        } catch (IOException excp) {
+            throw error("could not open %s", config);
+        }
+        Main parser = _configs.get(config);
+        if (parser == null || !modified.equals(parser._modified)) {
+            parser = new Main(List.of(config));
+            parser._compile = _compile;
+            parser._prototype = parser.readConfig();
+            parser._modified = modified;
+            _configs.put(config, parser);
+        }
+        return parser;
+    }
+
+    /** Return the message lines of the input, concatenated. */
+    private String readCiphertext() {
+        _input = _inputName == null ? new Scanner(System.in)
+            : getInput(_inputName);
+        StringBuilder ciphertext = new StringBuilder();
+        while (_input.hasNextLine()) {
+            String next = _input.nextLine();
+            if (!next.startsWith("*")) {
+                ciphertext.append(next);
+            }
+        }
+        return ciphertext.toString();
+    }
+
+    /** As for process(), but split the input before each setting line
+     *  and convert the resulting sections concurrently on THREADS
+     *  threads, each with its own copy of the configured machine.  The
+     *  output is written in input order. */
+    private void processSections(int threads) {
+        if (threads < 1) {
+            throw error("--jobs must be at least 1");
+        }
+        Machine prototype = readConfig();
+        _input = _inputName == null ? new Scanner(System.in)
+            : getInput(_inputName);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        ArrayDeque<Future<String>> pending = new ArrayDeque<>();
+        try {
+            ArrayList<String> section = new ArrayList<>();
+            while (_input.hasNextLine()) {
+                String next = _input.nextLine();
+                if (next.startsWith("*") && !section.isEmpty()) {
+                    List<String> lines = section;
+                    pending.add(pool.submit(() ->
+                        convertSection(new Machine(prototype), lines)));
+                    section = new ArrayList<>();
+                    while (pending.size() > threads * SECTIONS_PER_THREAD) {
+                        _output.print(result(pending.remove()));
+                    }
+                }
+                section.add(next);
+            }
+            List<String> lines = section;
+            pending.add(pool.submit(() ->
+                convertSection(new Machine(prototype), lines)));
+            while (!pending.isEmpty()) {
+                _output.print(result(pending.remove()));
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /** Return the output of converting LINES, a section of the input,
+     *  with MACHINE. */
+    private String convertSection(Machine machine, List<String> lines) {
+        StringBuilder out = new StringBuilder();
+        for (String next : lines) {
+            if (next.isEmpty()) {
+                out.append(System.lineSeparator());
+            }
+            if (next.startsWith("*")) {
+                setUp(machine, next);
+            } else {
+                formatMessageLine(machine.convert(next), out);
+            }
+        }
+        return out.toString();
+    }
+
+    /** Return the value of SECTION, rethrowing any EnigmaException it
+     *  raised. */
+    private static String result(Future<String> section) {
+        try {
+            return section.get();
+        } catch (ExecutionException excp) {
+            if (excp.getCause() instanceof EnigmaException) {
+                throw (EnigmaException) excp.getCause();
+            }
+            throw new IllegalStateException(excp.getCause());
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw error("interrupted");
+        }
+    }
+
+    /** As for process(), but convert _input in chunks as it is read,
+     *  mapping it into memory if it is a regular file, so that no
+     *  message line need fit in memory. */
+    void processStream() {
+        Machine machine = readConfig();
+        if (verbose()) {
+            machine.setTracer(new VerboseTrace(System.err));
+        }
+        StreamPipeline pipeline =
+            new StreamPipeline(machine, line -> setUp(machine, line),
+                               Channels.newChannel(_output),
+                               Charset.defaultCharset(), _pool);
+        try {
+            if (_inputName == null) {
+                pipeline.run(Channels.newChannel(System.in));
+            } else if (Files.isRegularFile(Paths.get(_inputName))) {
+                try (FileChannel in = FileChannel.open(Paths.get(_inputName),
+                        StandardOpenOption.READ)) {
+                    pipeline.run(in);
+                }
+            } else {
+                try (ReadableByteChannel in = Channels.newChannel(
+                        new FileInputStream(_inputName))) {
+                    pipeline.run(in);
+                }
+            }
+        } catch (IOException excp) {
+            throw error("I/O error: %s", excp.getMessage());
+        } finally {
+            _output.flush();
+        }
+    }
+
+    /** Write the conversion of the characters at positions RANGE
+     *  ("I,J", for I to J-1) of the raw input file, converted from the
+     *  setting line SETTINGS, followed by a line break. */
+    void processSeek(String range, String settings) {
+        if (_inputName == null || !Files.isRegularFile(Paths.get(_inputName))) {
+            throw error("--seek requires an input file");
+        }
+        Machine machine = readConfig();
+        setUp(machine, settings);
+        String[] bounds = range.split(",");
+        long start, end;
+        try {
+            start = Long.parseLong(bounds[0]);
+            end = Long.parseLong(bounds[1]);
+        } catch (NumberFormatException excp) {
+            throw error("bad range %s", range);
+        }
+        try (FileChannel in = FileChannel.open(Paths.get(_inputName),
+                StandardOpenOption.READ)) {
+            new RangeConverter(machine).convert(in, start, end,
+                                                Channels.newChannel(_output));
+        } catch (IOException excp) {
+            throw error("I/O error: %s", excp.getMessage());
+        }
+        _output.println();
+        _output.flush();
+    }
+
+    /** Convert the input byte for byte into the output, from the
+     *  setting line SETTINGS, through direct buffers and with no
+     *  character decoding. */
+    void processBytes(String settings) {
+        Machine machine = readConfig();
+        setUp(machine, settings);
+        ByteEngine engine = new ByteEngine(machine);
+        ByteBuffer buf = ByteBuffer.allocateDirect(BYTE_BUFFER_SIZE);
+        _output.flush();
+        try (FileChannel in = _inputName == null
+                 ? new FileInputStream(FileDescriptor.in).getChannel()
+                 : FileChannel.open(Paths.get(_inputName),
+                                    StandardOpenOption.READ);
+             FileChannel out = _outputName == null
+                 ? new FileOutputStream(FileDescriptor.out).getChannel()
+                 : FileChannel.open(Paths.get(_outputName),
+                                    StandardOpenOption.WRITE,
+                                    StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (in.read(buf) >= 0) {
+                buf.flip();
+                engine.convert(buf);
+                while (buf.hasRemaining()) {
+                    out.write(buf);
+                }
+                buf.clear();
+            }
+        } catch (IOException excp) {
+            throw error("I/O error: %s", excp.getMessage());
+        }
+    }
+
     /** Return an Enigma machine configured from the contents of configuration
-     *  file _config. */
-    private Machine readConfig() {
+     *  file _config, which is then closed. */
+    Machine readConfig() {
         try {
             String alphabet = _config.next();
-            _alphabet = new Alphabet(alphabet);
+            _alphabet = alphabet.equals(BYTE_ALPHABET) ? Alphabet.bytes()
+                : new Alphabet(alphabet);
             if (!_config.hasNextInt()) {
                 throw error("there must be numbers of rotors");
             }
@@ -122,9 +788,15 @@ public final class Main {
                 Rotor rotor = readRotor();
                 roTors.add(rotor);
             }
-            return new Machine(_alphabet, rotors, pawls, roTors);
+            Machine machine = new Machine(_alphabet, rotors, pawls, roTors);
+            if (_compile) {
+                machine.compile();
+            }
+            return machine;
         } catch (NoSuchElementException excp) {
             throw error("configuration file truncated");
+        } finally {
+            _config.close();
         }
     }
 
@@ -142,7 +814,8 @@ public final class Main {
                 throw error("there can't be empty notch");
             }
             if (notch.charAt(0) == 'M') {
-                return new MovingRotor(name, permutation, notch.substring(1));
+                return new MovingRotor(name, permutation,
+                                       _alphabet.decode(notch.substring(1)));
             } else if (notch.charAt(0) == 'N') {
                 return new FixedRotor(name, permutation);
             } else if (notch.charAt(0) == 'R') {
@@ -156,47 +829,22 @@ public final class Main {
     }
 
     /** Set M according to the specification given on SETTINGS,
-     *  which must have the format specified in the assignment. */
-    private void setUp(Machine M, String settings) {
-        String [] setting = settings.trim().split(" ");
-        String [] rotors = new String [M.numRotors()];
-        String plugboard = "";
-        if (!setting[0].equals("*")) {
-            throw error("There must be * at the beginning");
-        }
-        System.arraycopy(setting, 1, rotors, 0, M.numRotors());
-        for (int i = 0; i < rotors.length - 1; i++) {
-            for (int j = i + 1; j < rotors.length; j++) {
-                if (rotors[i].equals(rotors[j])) {
-                    throw error("duplicated rotors");
-                }
-            }
-        }
-        M.insertRotors(rotors);
-        if (setting.length - 1 < M.numRotors()) {
-            throw error("mismatch settings");
+     *  which must have the format specified in the assignment.  Each
+     *  distinct line is parsed once into Settings, which are kept for
+     *  the most recently used lines. */
+    void setUp(Machine M, String settings) {
+        String key = settings.trim();
+        Settings compiled;
+        synchronized (_setups) {
+            compiled = _setups.get(key);
         }
-        M.setRotors(setting[M.numRotors() + 1]);
-        if (!M.getRotor(0).reflecting()) {
-            throw error("first rotor must be reflecting");
-        }
-        if (M.numRotors() + 2 < setting.length) {
-            if (!setting[M.numRotors() + 2].contains("(")) {
-                M.insertRing(setting[M.numRotors() + 2]);
-                for (int i = M.numRotors() + 3; i < setting.length; i++) {
-                    plugboard = plugboard.concat(setting[i] + " ");
-                }
-            } else {
-                for (int i = M.numRotors() + 2; i < setting.length; i++) {
-                    plugboard = plugboard.concat(setting[i] + " ");
-                }
-            }
-        } else {
-            for (int i = M.numRotors() + 2; i < setting.length; i++) {
-                plugboard = plugboard.concat(setting[i] + " ");
+        if (compiled == null || !compiled.fits(M)) {
+            compiled = new Settings(key, M);
+            synchronized (_setups) {
+                _setups.put(key, compiled);
             }
         }
-        M.setPlugboard(new Permutation(plugboard, _alphabet));
+        compiled.apply(M);
     }
 
     /** Return true iff verbose option specified. */
@@ -207,11 +855,19 @@ public final class Main {
     /** Print MSG in groups of five (except that the last group may
      *  have fewer letters). */
     private void printMessageLine(String msg) {
+        StringBuilder out = new StringBuilder();
+        formatMessageLine(msg, out);
+        _output.print(out);
+    }
+
+    /** Append MSG to OUT in groups of five, as for printMessageLine. */
+    static void formatMessageLine(String msg, StringBuilder out) {
         for (int i = 0; i < msg.length(); i += 5) {
             if (msg.length() - i <= 5) {
-                _output.println(msg.substring(i));
+                out.append(msg, i, msg.length());
+                out.append(System.lineSeparator());
             } else {
-                _output.print(msg.substring(i, i + 5) + " ");
+                out.append(msg, i, i + 5).append(' ');
             }
         }
     }
@@ -219,12 +875,122 @@ public final class Main {
     /** Alphabet used in this machine. */
     private Alphabet _alphabet;
 
+    /** Number of sections per thread that processSections may have
+     *  queued or finished but not yet written. */
+    private static final int SECTIONS_PER_THREAD = 4;
+
+    /** Pool for converting long messages in parallel, or null to convert
+     *  sequentially. */
+    private ForkJoinPool _pool;
+
+    /** Number of distinct setting lines whose keystreams are kept. */
+    private static final int KEYSTREAM_CACHE_SIZE = 16;
+
+    /** Maximum substitutions per keystream, or 0 to convert messages
+     *  without them. */
+    private int _keystreamSteps;
+
+    /** Keystreams of recent setting lines, least recently used first. */
+    private final LinkedHashMap<String, Keystream> _keystreams =
+        new LinkedHashMap<>(KEYSTREAM_CACHE_SIZE, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<String, Keystream> eldest) {
+                return size() > KEYSTREAM_CACHE_SIZE;
+            }
+        };
+
+    /** Options selecting ways of converting that do not use
+     *  keystreams. */
+    private static final String[] KEYSTREAM_CONFLICTS = {
+        "--verbose", "--stream", "--jobs", "--seek", "--bytes", "--crib",
+        "--solve", "--serve", "--worker",
+    };
+
+    /** Keystream file given by --keystream-file, or null. */
+    private KeystreamFile _keystreamFile;
+
+    /** The keystream in _keystreamFile, once it has been used. */
+    private Keystream _fileKeystream;
+
+    /** Keystream for the current setting, or null. */
+    private Keystream _keystream;
+
+    /** Position in _keystream of the next message character. */
+    private long _position;
+
+    /** Form of the argument of --crib. */
+    private static final Pattern CRIB_SPEC =
+        Pattern.compile("(?:(\\d+):)?(.+)");
+
+    /** Seed of the first restart of --solve, fixed so that runs are
+     *  repeatable. */
+    private static final long SOLVE_SEED = 1;
+
+    /** Number of distinct setting lines whose parsed forms are kept. */
+    private static final int SETUP_CACHE_SIZE = 256;
+
+    /** Parsed forms of recent setting lines, trimmed, least recently
+     *  used first.  Guarded by itself, since sections of the input may
+     *  be set up concurrently. */
+    private final LinkedHashMap<String, Settings> _setups =
+        new LinkedHashMap<>(SETUP_CACHE_SIZE, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<String, Settings> eldest) {
+                return size() > SETUP_CACHE_SIZE;
+            }
+        };
+
+    /** Number of configurations kept by runWorker. */
+    private static final int CONFIG_CACHE_SIZE = 16;
+
+    /** Longest job runWorker accepts, in bytes. */
+    static final int MAX_JOB = 1 << 26;
+
+    /** Size of runWorker's buffers. */
+    private static final int WORKER_BUFFER = 1 << 16;
+
+    /** Parsers of recently used configuration files, by name, least
+     *  recently used first. */
+    private final LinkedHashMap<String, Main> _configs =
+        new LinkedHashMap<>(CONFIG_CACHE_SIZE, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<String, Main> eldest) {
+                return size() > CONFIG_CACHE_SIZE;
+            }
+        };
+
+    /** The machine read from _config by configured(), copied for each
+     *  job. */
+    private Machine _prototype;
+
+    /** Modification time of the configuration file when _prototype was
+     *  read. */
+    private FileTime _modified;
+
+    /** Configuration alphabet token declaring the byte alphabet. */
+    private static final String BYTE_ALPHABET = "@bytes";
+
+    /** Size of the buffer used by processBytes. */
+    private static final int BYTE_BUFFER_SIZE = 1 << 20;
+
+    /** True if --compile specified. */
+    private boolean _compile;
+
+    /** Name of the input file, or null for the standard input. */
+    private final String _inputName;
+
     /** Source of input messages. */
-    private final Scanner _input;
+    private Scanner _input;
 
     /** Source of machine configuration. */
     private final Scanner _config;
 
+    /** Name of the output file, or null for the standard output. */
+    private final String _outputName;
+
     /** File for encoded/decoded messages. */
     private final PrintStream _output;
 
@@ -13,18 +13,39 @@ class MovingRotor extends Rotor {
      *  alphabet).
      */
     MovingRotor(String name, Permutation perm, String notches) {
-        super(name, perm);
-        _notches = notches;
+        super(new Wiring(name, perm, notches));
     }
 
+    /** A copy of ORIGINAL, as for Rotor(Rotor). */
+    MovingRotor(MovingRotor original) {
+        super(original);
+    }
+
+    @Override
+    Rotor copy() {
+        return new MovingRotor(this);
+    }
+
+    @Override
     boolean atNotch() {
-        for (int i = 0; i < notches().length(); i++) {
-            if (alphabet().toInt(notches().charAt(i)) == setting()) {
-                return true;
-            }
-        }
-        return false;
+        return wiring().notchAt(setting());
     }
+
+    @Override
+    boolean notchAt(int posn) {
+        return wiring().notchAt(posn);
+    }
+
+    @Override
+    int nextNotch(int posn) {
+        return wiring().nextNotch(posn);
+    }
+
+    @Override
+    int notchCount() {
+        return wiring().notchCount();
+    }
+
     @Override
     boolean rotates() {
         return true;
@@ -37,10 +58,7 @@ class MovingRotor extends Rotor {
 
     @Override
     String notches() {
-        return _notches;
+        return wiring().notches();
     }
 
-    /** Notches of the rotor. */
-    private final String _notches;
-
 }
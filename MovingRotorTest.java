@@ -95,4 +95,14 @@ public class MovingRotorTest {
                 rotor.convertBackward(alpha.indexOf('S')));
     }
 
+    @Test
+    public void checkRingCancelsSetting() {
+        setRotor("I", NAVALA, "");
+        rotor.set('B');
+        rotor.setring('B');
+        checkRotor("Rotor I ring B at B", UPPER_STRING, NAVALA_MAP.get("I"));
+        rotor.setring('A');
+        checkRotor("Rotor I ring A at B", UPPER_STRING, NAVALB_MAP.get("I"));
+    }
+
 }
@@ -0,0 +1,234 @@
+package enigma;
+
+import java.io.IOException;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import java.util.Arrays;
+
+import static enigma.EnigmaException.*;
+
+/** Log-probabilities of the n-grams of an alphabet, stored in a file
+ *  that is mapped read-only, so that solvers in any number of threads
+ *  and processes share one copy.  Each score is log10 of the n-gram's
+ *  frequency in a training text, times SCALE, rounded to a short; the
+ *  n-gram C1 ... CN has index ((C1 * size + C2) * size ...) + CN.  The
+ *  file holds, in big-endian order: the int MAGIC; the int VERSION; the
+ *  alphabet, as an int length followed by that many chars; the int
+ *  order N; the int SCALE; and the size**N scores.
+ *  @author Hanqi Xiong
+ */
+final class NgramTable {
+
+    /** Count the ARGS[1]-grams of the text in file ARGS[2], in the
+     *  alphabet of configuration file ARGS[0], and write their table to
+     *  file ARGS[3]. */
+    public static void main(String... args) {
+        try {
+            if (args.length != 4) {
+                throw error("Usage: java enigma.NgramTable CONFIG ORDER "
+                            + "TEXT OUTPUT");
+            }
+            Main main = new Main(Arrays.asList(args[0]));
+            Alphabet alphabet = main.readConfig().alphabet();
+            int order;
+            try {
+                order = Integer.parseInt(args[1]);
+            } catch (NumberFormatException excp) {
+                throw error("bad order: %s", args[1]);
+            }
+            String text;
+            try {
+                text = Files.readString(Paths.get(args[2]));
+            } catch (IOException excp) {
+                throw error("could not read %s: %s", args[2],
+                            excp.getMessage());
+            }
+            write(Paths.get(args[3]), alphabet, order, text);
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** Write to FILE the table of the ORDER-grams of ALPHABET in TEXT.
+     *  Characters of TEXT not in ALPHABET are dropped, after trying
+     *  them in upper case.  N-grams that do not occur are scored as if
+     *  they had occurred UNSEEN times. */
+    static void write(Path file, Alphabet alphabet, int order,
+                      CharSequence text) {
+        if (order < 1) {
+            throw error("bad order: %d", order);
+        }
+        int size = alphabet.size();
+        long entries = 1;
+        for (int i = 0; i < order; i++) {
+            entries *= size;
+            if (entries > MAX_ENTRIES) {
+                throw error("%d-grams of %d characters are too many",
+                            order, size);
+            }
+        }
+        int modulus = (int) (entries / size);
+        int[] counts = new int[(int) entries];
+        long total = 0;
+        int index = 0, run = 0;
+        for (int i = 0; i < text.length(); i++) {
+            int c = alphabet.toInt(text.charAt(i));
+            if (c == Alphabet.UNKNOWN) {
+                c = alphabet.toInt(Character.toUpperCase(text.charAt(i)));
+            }
+            if (c == Alphabet.UNKNOWN) {
+                continue;
+            }
+            index = (index % modulus) * size + c;
+            run += 1;
+            if (run >= order) {
+                counts[index] += 1;
+                total += 1;
+            }
+        }
+        if (total == 0) {
+            throw error("text has no %d-grams", order);
+        }
+        ByteBuffer header =
+            ByteBuffer.allocate(HEADER_SIZE + 2 * size);
+        header.putInt(MAGIC).putInt(VERSION).putInt(size);
+        for (int i = 0; i < size; i++) {
+            header.putChar(alphabet.toChar(i));
+        }
+        header.putInt(order).putInt(SCALE);
+        header.flip();
+        ByteBuffer scores = ByteBuffer.allocate(2 * counts.length);
+        for (int count : counts) {
+            double p = (count == 0 ? UNSEEN : count) / (double) total;
+            long score = Math.round(Math.log10(p) * SCALE);
+            scores.putShort((short) Math.max(score, Short.MIN_VALUE));
+        }
+        scores.flip();
+        try (FileChannel out =
+             FileChannel.open(file, StandardOpenOption.CREATE,
+                              StandardOpenOption.TRUNCATE_EXISTING,
+                              StandardOpenOption.WRITE)) {
+            while (header.hasRemaining() || scores.hasRemaining()) {
+                out.write(new ByteBuffer[] { header, scores });
+            }
+        } catch (IOException excp) {
+            throw error("could not write %s: %s", file, excp.getMessage());
+        }
+    }
+
+    /** Map the n-gram file FILE. */
+    NgramTable(Path file) {
+        _file = file;
+        MappedByteBuffer data;
+        try (FileChannel in = FileChannel.open(file,
+                                               StandardOpenOption.READ)) {
+            if (in.size() > Integer.MAX_VALUE) {
+                throw error("%s is too large", file);
+            }
+            data = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+        } catch (IOException excp) {
+            throw error("could not open %s: %s", file, excp.getMessage());
+        }
+        try {
+            if (data.getInt() != MAGIC) {
+                throw error("%s is not an n-gram file", file);
+            }
+            if (data.getInt() != VERSION) {
+                throw error("%s has an unsupported version", file);
+            }
+            int len = data.getInt();
+            if (len < 1 || len > data.remaining() / 2) {
+                throw error("%s is truncated", file);
+            }
+            char[] chars = new char[len];
+            data.asCharBuffer().get(chars);
+            data.position(data.position() + 2 * len);
+            _alphabet = new String(chars);
+            _order = data.getInt();
+            _scale = data.getInt();
+        } catch (BufferUnderflowException excp) {
+            throw error("%s is truncated", file);
+        }
+        long entries = 1;
+        for (int i = 0; i < _order && entries <= MAX_ENTRIES; i++) {
+            entries *= _alphabet.length();
+        }
+        if (_order < 1 || entries > MAX_ENTRIES
+            || data.remaining() < 2 * entries) {
+            throw error("%s is truncated", file);
+        }
+        _scores = data.slice().asShortBuffer();
+    }
+
+    /** Check that I was made for ALPHABET. */
+    void check(Alphabet alphabet) {
+        boolean same = alphabet.size() == _alphabet.length();
+        for (int i = 0; same && i < _alphabet.length(); i++) {
+            same = alphabet.toChar(i) == _alphabet.charAt(i);
+        }
+        if (!same) {
+            throw error("%s was made for a different alphabet", _file);
+        }
+    }
+
+    /** Return N, the length of my n-grams. */
+    int order() {
+        return _order;
+    }
+
+    /** Return the number by which log10 probabilities were multiplied
+     *  to give scores. */
+    int scale() {
+        return _scale;
+    }
+
+    /** Return the score of the n-gram with index INDEX. */
+    int score(int index) {
+        return _scores.get(index);
+    }
+
+    /** Identifies an n-gram file ("ENNG"). */
+    static final int MAGIC = 0x454e4e47;
+
+    /** Version of the file layout. */
+    static final int VERSION = 1;
+
+    /** Multiplier of the log10 probabilities written. */
+    static final int SCALE = 1000;
+
+    /** Notional count of each n-gram missing from a training text. */
+    private static final double UNSEEN = 0.01;
+
+    /** Most scores in a table. */
+    private static final long MAX_ENTRIES = Integer.MAX_VALUE / 2;
+
+    /** Bytes in the fixed-size fields of the header. */
+    private static final int HEADER_SIZE = 20;
+
+    /** The file name, for messages. */
+    private final Path _file;
+
+    /** Characters of the alphabet, in order. */
+    private final String _alphabet;
+
+    /** Length of the n-grams. */
+    private final int _order;
+
+    /** Multiplier of the stored log10 probabilities. */
+    private final int _scale;
+
+    /** The mapped scores. */
+    private final ShortBuffer _scores;
+
+}
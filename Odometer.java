@@ -0,0 +1,239 @@
+package enigma;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/** The settings of the rotors of a Machine, moved many keypresses ahead
+ *  at once, like the digits of an odometer.  Rotor I "carries" at a
+ *  keypress when it is at a notch and rotor I-1 rotates, and then both
+ *  advance; the fast rotor advances at every keypress.  The rotors from
+ *  any slot rightward therefore move independently of those to their
+ *  left, which see them only through their carries.
+ *
+ *  <p>A rotor that is not at a notch advances only when the rotor to
+ *  its right carries, so it reaches its next notch after as many carries
+ *  of that rotor as it is positions away, and carries itself at the
+ *  following keypress.  The keypresses between one carry of a rotor and
+ *  its next are thus worked out level by level, from the carries of the
+ *  rotor to its right, with the fast rotor's in closed form.  Each
+ *  result is remembered, by the settings of the rotors concerned, and
+ *  rotors just after a carry take few distinct settings, so almost all
+ *  are looked up rather than worked out.  Once the carries driving a
+ *  rotor come round to settings seen before, whole repetitions of them
+ *  are skipped by division, so the cost of a jump does not grow with
+ *  its length.
+ *  @author Hanqi Xiong
+ */
+final class Odometer {
+
+    /** An odometer over ROTORS, the rotors of a Machine whose alphabet
+     *  has SIZE characters, at their current settings.  ENGAGES[I] is
+     *  true iff rotor I-1 rotates.  ROTORS are not changed until
+     *  store(). */
+    Odometer(Rotor[] rotors, boolean[] engages, int size) {
+        _rotors = rotors;
+        _engages = engages;
+        _size = size;
+        _last = rotors.length - 1;
+        _settings = new int[rotors.length];
+        for (int i = 0; i < rotors.length; i++) {
+            _settings[i] = rotors[i].setting();
+        }
+    }
+
+    /** Move my settings KEYPRESSES keypresses ahead. */
+    void advance(long keypresses) {
+        advance(0, keypresses);
+    }
+
+    /** Set each rotating rotor to my setting for it. */
+    void store() {
+        for (int i = 0; i <= _last; i++) {
+            Rotor rotor = _rotors[i];
+            if (rotor.rotates() && rotor.setting() != _settings[i]) {
+                rotor.set(_settings[i]);
+            }
+        }
+    }
+
+    /** Move the settings of rotors LEVEL .. _last KEYS keypresses ahead,
+     *  during which rotor LEVEL must not carry. */
+    private void advance(int level, long keys) {
+        if (keys == 0) {
+            return;
+        }
+        if (level == _last) {
+            move(level, keys);
+            return;
+        }
+        int next = level + 1;
+        if (!_rotors[level].rotates()) {
+            advance(next, keys);
+            return;
+        }
+        HashMap<State, long[]> seen = new HashMap<>();
+        long carries = 0;
+        while (keys > 0) {
+            int[] before = Arrays.copyOfRange(_settings, next, _last + 1);
+            long time = carry(next);
+            if (time == NEVER || time > keys) {
+                System.arraycopy(before, 0, _settings, next, before.length);
+                advance(next, keys);
+                return;
+            }
+            keys -= time;
+            carries += 1;
+            move(level, 1);
+            if (seen != null) {
+                State state = new State(_settings, next);
+                long[] earlier = seen.get(state);
+                if (earlier != null) {
+                    long period = earlier[0] - keys;
+                    long repeats = keys / period;
+                    keys -= repeats * period;
+                    move(level, (carries - earlier[1]) % _size
+                         * (repeats % _size));
+                    seen = null;
+                } else if (seen.size() < MAX_STATES) {
+                    seen.put(state, new long[] { keys, carries });
+                }
+            }
+        }
+    }
+
+    /** Move the settings of rotors J .. _last up to and including the
+     *  next keypress at which rotor J carries, where rotor J-1 rotates,
+     *  and return the number of keypresses that takes.  Returns NEVER,
+     *  leaving the settings undefined, if rotor J never carries or if
+     *  the count does not fit in a long. */
+    private long carry(int j) {
+        Rotor rotor = _rotors[j];
+        if (!rotor.rotates() || rotor.notchCount() == 0) {
+            return NEVER;
+        }
+        State start = new State(_settings, j);
+        Carry known = _carries.get(start);
+        if (known != null) {
+            System.arraycopy(known._settings, 0, _settings, j,
+                             known._settings.length);
+            return known._time;
+        }
+        long time = 0;
+        if (!rotor.notchAt(_settings[j])) {
+            int toNotch = rotor.nextNotch(_settings[j]);
+            if (j == _last) {
+                move(j, toNotch);
+                time = toNotch;
+            } else {
+                for (int k = 0; k < toNotch; k++) {
+                    long t = carry(j + 1);
+                    if (t == NEVER || time > NEVER - t) {
+                        return NEVER;
+                    }
+                    time += t;
+                    move(j, 1);
+                }
+            }
+        }
+        step(j);
+        time = time == NEVER ? NEVER : time + 1;
+        if (_carries.size() < MAX_STATES) {
+            _carries.put(start, new Carry(_settings, j, time));
+        }
+        return time;
+    }
+
+    /** Move the settings of rotors J .. _last one keypress ahead, as
+     *  Machine.advanceRotors moves the rotors. */
+    private void step(int j) {
+        for (int i = j; i <= _last; i++) {
+            if (i == _last || carries(i + 1) || carries(i)) {
+                move(i, 1);
+            }
+        }
+    }
+
+    /** Return true iff rotor I carries at the next keypress. */
+    private boolean carries(int i) {
+        return _engages[i] && _rotors[i].notchAt(_settings[i]);
+    }
+
+    /** Move the setting of rotor I ahead by STEPS, if it rotates. */
+    private void move(int i, long steps) {
+        if (_rotors[i].rotates()) {
+            _settings[i] = (int) ((_settings[i] + steps % _size) % _size);
+        }
+    }
+
+    /** The settings of the rotors from some slot rightward, compared by
+     *  value. */
+    private static final class State {
+
+        /** The settings SETTINGS[FROM ..]. */
+        State(int[] settings, int from) {
+            _content = Arrays.copyOfRange(settings, from, settings.length);
+            _hash = Arrays.hashCode(_content);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof State
+                && Arrays.equals(((State) obj)._content, _content);
+        }
+
+        @Override
+        public int hashCode() {
+            return _hash;
+        }
+
+        /** The settings, rightmost last. */
+        private final int[] _content;
+
+        /** Hash of _content. */
+        private final int _hash;
+    }
+
+    /** Where the rotors from some slot rightward are just after the
+     *  leftmost of them next carries, and when. */
+    private static final class Carry {
+
+        /** The settings SETTINGS[FROM ..], reached TIME keypresses on. */
+        Carry(int[] settings, int from, long time) {
+            _settings = Arrays.copyOfRange(settings, from, settings.length);
+            _time = time;
+        }
+
+        /** The settings, rightmost last. */
+        private final int[] _settings;
+
+        /** Keypresses taken, up to and including the carry. */
+        private final long _time;
+    }
+
+    /** Returned by carry for a rotor that never carries. */
+    private static final long NEVER = Long.MAX_VALUE;
+
+    /** Most settings remembered at each level, and in _carries. */
+    private static final int MAX_STATES = 1 << 16;
+
+    /** The rotors, reflector first. */
+    private final Rotor[] _rotors;
+
+    /** _engages[I] is true iff rotor I-1 rotates. */
+    private final boolean[] _engages;
+
+    /** Size of the alphabet. */
+    private final int _size;
+
+    /** Slot of the fast rotor. */
+    private final int _last;
+
+    /** Current setting of each rotor. */
+    private final int[] _settings;
+
+    /** For the settings of the rotors from some slot rightward, those
+     *  just after the next carry of the leftmost of them, and the
+     *  keypresses until then. */
+    private final HashMap<State, Carry> _carries = new HashMap<>();
+
+}
@@ -1,7 +1,10 @@
 package enigma;
 
+import static enigma.EnigmaException.*;
+
 /** Represents a permutation of a range of integers starting at 0 corresponding
- *  to the characters of an alphabet.
+ *  to the characters of an alphabet.  The cycle notation is compiled once,
+ *  at construction, into forward and inverse tables.
  *  @author Hanqi Xiong
  *
  */
@@ -10,14 +13,56 @@ class Permutation {
      *  form "(cccc) (cc) ..." where the c's are characters in ALPHABET, which
      *  is interpreted as a permutation in cycle notation.  Characters in the
      *  alphabet that are not included in any cycle map to themselves.
-     *  Whitespace is ignored. */
-    private final String [] _cycles;
+     *  Whitespace is ignored.  Each cycle is written as
+     *  ALPHABET.decode expects. */
     Permutation(String cycles, Alphabet alphabet) {
         _alphabet = alphabet;
+        int n = alphabet.size();
+        _forward = new int[n];
+        _inverse = new int[n];
+        for (int i = 0; i < n; i++) {
+            _forward[i] = i;
+            _inverse[i] = i;
+        }
+        _derangement = compile(cycles);
+    }
+
+    /** Fill in _forward and _inverse from the cycle notation CYCLES.
+     *  Return false iff CYCLES contains a cycle of length 1. */
+    private boolean compile(String cycles) {
         String cycle = cycles.trim();
         cycle = cycle.replace("(", "");
         cycle = cycle.replace(")", " ");
-        _cycles = cycle.split(" ");
+        boolean noFixedPoints = true;
+        for (String written : cycle.split(" ")) {
+            String c = _alphabet.decode(written);
+            if (c.isEmpty()) {
+                continue;
+            }
+            if (c.length() == 1) {
+                noFixedPoints = false;
+            }
+            int first = index(c.charAt(0));
+            int prev = first;
+            for (int j = 1; j < c.length(); j++) {
+                int next = index(c.charAt(j));
+                _forward[prev] = next;
+                _inverse[next] = prev;
+                prev = next;
+            }
+            _forward[prev] = first;
+            _inverse[first] = prev;
+        }
+        return noFixedPoints;
+    }
+
+    /** Return the index of CH, which must be in my alphabet. */
+    private int index(char ch) {
+        int k = _alphabet.toInt(ch);
+        if (k < 0) {
+            throw error("character %c not in alphabet", ch);
+        }
+        return k;
     }
 
     /** Return the value of P modulo the size of this permutation.
@@ -34,35 +79,25 @@ class Permutation {
 
     /** Returns the size of the alphabet I permute. */
     int size() {
-        return _alphabet.size();
+        return _forward.length;
     }
 
     /** Return the result of applying this permutation to P modulo the
      *  alphabet size. */
     int permute(int p) {
-        for (String cycle : _cycles) {
-            for (int j = 0; j < cycle.length(); j++) {
-                if (cycle.charAt(j) == _alphabet.toChar(wrap(p, size()))) {
-                    int permute = wrap(j + 1, cycle.length());
-                    return _alphabet.toInt(cycle.charAt(permute));
-                }
-            }
+        if (p >= 0 && p < _forward.length) {
+            return _forward[p];
         }
-        return p;
+        return _forward[wrap(p, size())];
     }
 
     /** Return the result of applying the inverse of this permutation
      *  to  C modulo the alphabet size. */
     int invert(int c) {
-        for (String cycle : _cycles) {
-            for (int j = 0; j < cycle.length(); j++) {
-                if (cycle.charAt(j) == _alphabet.toChar(wrap(c, size()))) {
-                    int invert = wrap(j - 1, cycle.length());
-                    return _alphabet.toInt(cycle.charAt(invert));
-                }
-            }
+        if (c >= 0 && c < _inverse.length) {
+            return _inverse[c];
         }
-        return c;
+        return _inverse[wrap(c, size())];
     }
 
 
@@ -77,6 +112,12 @@ class Permutation {
         return _alphabet.toChar(invert(_alphabet.toInt(c)));
     }
 
+    /** Return the image of each index under this permutation, which
+     *  must not be modified. */
+    int[] forward() {
+        return _forward;
+    }
+
     /** Return the alphabet used to initialize this Permutation. */
     Alphabet alphabet() {
         return _alphabet;
@@ -85,14 +126,18 @@ class Permutation {
     /** Return true iff this permutation is a derangement (i.e., a
      *  permutation for which no value maps to itself). */
     boolean derangement() {
-        for (String cycle : _cycles) {
-            if (cycle.length() == 1) {
-                return false;
-            }
-        }
-        return true;
+        return _derangement;
     }
 
     /** Alphabet of this permutation. */
     private final Alphabet _alphabet;
+
+    /** The image of each index under this permutation. */
+    private final int[] _forward;
+
+    /** The image of each index under the inverse of this permutation. */
+    private final int[] _inverse;
+
+    /** True iff no cycle of length 1 was given. */
+    private final boolean _derangement;
 }
@@ -74,4 +74,37 @@ public class PermutationTest {
         assertTrue(perm.derangement());
         assertFalse(perm1.derangement());
     }
+
+    @Test
+    public void checkWrapAndInverse() {
+        perm = new Permutation("(AELTPHQXRU) (BKNW) (CMOY) (DFG) (IV) (JZ) (S)",
+                UPPER);
+        for (int i = 0; i < UPPER.size(); i += 1) {
+            assertEquals(i, perm.invert(perm.permute(i)));
+            assertEquals(perm.permute(i), perm.permute(i + UPPER.size()));
+            assertEquals(perm.invert(i), perm.invert(i - UPPER.size()));
+        }
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkNotInAlphabet() {
+        perm = new Permutation("(AB) (C1)", UPPER);
+    }
+
+    @Test
+    public void checkByteAlphabet() {
+        Alphabet bytes = Alphabet.bytes();
+        assertEquals(256, bytes.size());
+        assertEquals("\u0000(\u00ff", bytes.decode("0028fF"));
+        perm = new Permutation("(0028ff) (4142)", bytes);
+        assertEquals(0x28, perm.permute(0));
+        assertEquals(0, perm.permute(0xff));
+        assertEquals(0x42, perm.permute(0x41));
+        assertEquals(0x29, perm.permute(0x29));
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkBadHex() {
+        perm = new Permutation("(00g1)", Alphabet.bytes());
+    }
 }
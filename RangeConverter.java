@@ -0,0 +1,94 @@
+package enigma;
+
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+import static enigma.EnigmaException.*;
+
+/** Converts arbitrary ranges of a raw message file, in which each byte
+ *  is one key pressed (with no blanks or line breaks), without
+ *  converting the text before them: the machine is jumped directly to
+ *  the state for the start of the range, and only the range itself is
+ *  mapped into memory.
+ *  @author Hanqi Xiong
+ */
+final class RangeConverter {
+
+    /** A converter for files whose first character is converted by
+     *  ORIGIN in its current state.  ORIGIN is not changed. */
+    RangeConverter(Machine origin) {
+        _origin = new Machine(origin);
+    }
+
+    /** Write to OUT the conversion of the characters of IN at positions
+     *  START (inclusive) to END (exclusive), numbering from 0.  Fails if
+     *  any of them is not in the alphabet. */
+    void convert(FileChannel in, long start, long end,
+                 WritableByteChannel out) throws IOException {
+        if (start < 0 || start > end || end > in.size()) {
+            throw error("range %d,%d is not within the file", start, end);
+        }
+        Machine machine = new Machine(_origin);
+        machine.jump(start);
+        byte[] chunk = new byte[CHUNK_SIZE];
+        ByteBuffer output = ByteBuffer.wrap(chunk);
+        for (long base = start; base < end; base += MAP_WINDOW) {
+            MappedByteBuffer window =
+                in.map(FileChannel.MapMode.READ_ONLY, base,
+                       Math.min(MAP_WINDOW, end - base));
+            while (window.hasRemaining()) {
+                int len = Math.min(chunk.length, window.remaining());
+                window.get(chunk, 0, len);
+                machine.convert(chunk, 0, chunk, 0, len,
+                                UnknownPolicy.REJECT);
+                output.clear().limit(len);
+                while (output.hasRemaining()) {
+                    out.write(output);
+                }
+            }
+        }
+    }
+
+    /** Return the conversion of the characters of IN at positions START
+     *  (inclusive) to END (exclusive), as for convert(FileChannel, long,
+     *  long, WritableByteChannel). */
+    byte[] convert(FileChannel in, long start, long end) throws IOException {
+        if (end - start > Integer.MAX_VALUE - 2) {
+            throw error("range %d,%d is too long", start, end);
+        }
+        ByteBuffer result = ByteBuffer.allocate((int) Math.max(0,
+                                                               end - start));
+        convert(in, start, end, new WritableByteChannel() {
+            @Override
+            public int write(ByteBuffer src) {
+                int n = src.remaining();
+                result.put(src);
+                return n;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        return result.array();
+    }
+
+    /** Size of the region of the file mapped at once. */
+    private static final long MAP_WINDOW = 1L << 26;
+
+    /** Characters converted at once. */
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    /** The machine in its state for position 0. */
+    private final Machine _origin;
+
+}
@@ -13,6 +13,16 @@ class Reflector extends FixedRotor {
         super(name, perm);
     }
 
+    /** A copy of ORIGINAL, as for Rotor(Rotor). */
+    Reflector(Reflector original) {
+        super(original);
+    }
+
+    @Override
+    Rotor copy() {
+        return new Reflector(this);
+    }
+
     boolean reflecting() {
         return true;
     }
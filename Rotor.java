@@ -9,34 +9,71 @@ class Rotor {
 
     /** A rotor named NAME whose permutation is given by PERM. */
     Rotor(String name, Permutation perm) {
-        _name = name;
-        _permutation = perm;
+        this(new Wiring(name, perm, ""));
+    }
+
+    /** A rotor wired as WIRING, at its 0 setting with its ring at 0. */
+    Rotor(Wiring wiring) {
+        _wiring = wiring;
+        _forward = wiring.forward();
+        _backward = wiring.backward();
         _setting = 0;
     }
 
+    /** A rotor with the same wiring, setting and ring as ORIGINAL, but
+     *  moving independently of it. */
+    Rotor(Rotor original) {
+        this(original._wiring);
+        _setting = original._setting;
+        _ring = original._ring;
+        _offset = original._offset;
+        _base = original._base;
+    }
+
+    /** Return a copy of me, as for Rotor(Rotor). */
+    Rotor copy() {
+        return new Rotor(this);
+    }
+
+    /** Return my wiring. */
+    Wiring wiring() {
+        return _wiring;
+    }
+
+    /** Return my ring setting. */
+    int ring() {
+        return _ring;
+    }
+
+    /** Set my ring setting to the character RING. */
     void setring(char ring) {
-        _ring = alphabet().toInt(ring);
-        _hasring = true;
+        setring(alphabet().toInt(ring));
+    }
+
+    /** Set my ring setting to RING, an index in my alphabet. */
+    void setring(int ring) {
+        _ring = ring;
+        updateOffset();
     }
 
     /** Return my name. */
     String name() {
-        return _name;
+        return _wiring.name();
     }
 
     /** Return my alphabet. */
     Alphabet alphabet() {
-        return _permutation.alphabet();
+        return _wiring.permutation().alphabet();
     }
 
     /** Return my permutation. */
     Permutation permutation() {
-        return _permutation;
+        return _wiring.permutation();
     }
 
     /** Return the size of my alphabet. */
     int size() {
-        return _permutation.size();
+        return _wiring.size();
     }
 
     /** Return true iff I have a ratchet and can move. */
@@ -57,50 +94,38 @@ class Rotor {
     /** Set setting() to POSN.  */
     void set(int posn) {
         _setting = posn;
+        updateOffset();
     }
 
     /** Set setting() to character CPOSN. */
     void set(char cposn) {
-        _setting = alphabet().toInt(cposn);
+        set(alphabet().toInt(cposn));
+    }
+
+    /** Select the rows of my conversion tables for the current setting
+     *  and ring. */
+    private void updateOffset() {
+        _offset = wrap(_setting - _ring, size());
+        _base = _offset * size();
     }
 
     /** Return the conversion of P (an integer in the range 0..size()-1)
      *  according to my permutation. */
     int convertForward(int p) {
-        if (!_hasring) {
-            int result = _permutation.permute(wrap(p + _setting, size()));
-            if (Main.verbose()) {
-                System.err.printf("%c -> ", alphabet().toChar(result));
-            }
-            return wrap(result - _setting, size());
-        } else {
-            int temp = wrap(p + _setting - _ring, size());
-            int result = _permutation.permute(temp);
-            if (Main.verbose()) {
-                System.err.printf("%c -> ", alphabet().toChar(result));
-            }
-            return wrap(result - _setting + _ring, size());
-
-        }
+        return _forward[_base + p];
     }
 
     /** Return the conversion of E (an integer in the range 0..size()-1)
      *  according to the inverse of my permutation. */
     int convertBackward(int e) {
-        if (!_hasring) {
-            int result = _permutation.invert(wrap(e + _setting, size()));
-            if (Main.verbose()) {
-                System.err.printf("%c -> ", alphabet().toChar(result));
-            }
-            return wrap(result - _setting, size());
-        } else {
-            int temp = wrap(e + _setting - _ring, size());
-            int result = _permutation.invert(temp);
-            if (Main.verbose()) {
-                System.err.printf("%c -> ", alphabet().toChar(result));
-            }
-            return wrap(result - _setting + _ring, size());
-        }
+        return _backward[_base + e];
+    }
+
+    /** Return the contact of my permutation, at its 0 setting, that
+     *  lines up with position E (an integer in the range 0..size()-1)
+     *  at my current setting and ring. */
+    int contact(int e) {
+        return wrap(e + _offset, size());
     }
 
     /** Returns the positions of the notches, as a string giving the letters
@@ -115,13 +140,29 @@ class Rotor {
         return false;
     }
 
+    /** Returns true iff I would be at a notch at setting POSN. */
+    boolean notchAt(int posn) {
+        return false;
+    }
+
+    /** Returns the least D >= 0 such that notchAt(POSN + D), taken
+     *  modulo size(), or -1 if I have no notches. */
+    int nextNotch(int posn) {
+        return -1;
+    }
+
+    /** Returns the number of settings at which I am at a notch. */
+    int notchCount() {
+        return 0;
+    }
+
     /** Advance me one position, if possible. By default, does nothing. */
     void advance() {
     }
 
     @Override
     public String toString() {
-        return "Rotor " + _name;
+        return "Rotor " + name();
     }
 
     final int wrap(int p, int size) {
@@ -132,18 +173,25 @@ class Rotor {
         return r;
     }
 
-    /** My name. */
-    private final String _name;
-
-    /** The permutation implemented by this rotor in its 0 position. */
-    private final Permutation _permutation;
+    /** My name, permutation, notches and tables. */
+    private final Wiring _wiring;
 
-    /** Common alphabet of my rotors. */
+    /** My current position, as an index in my alphabet. */
     private int _setting;
 
     /** The ring of the rotor. */
     private int _ring;
 
-    /** To check if I have a ring. */
-    private boolean _hasring;
+    /** My setting less my ring, modulo size(). */
+    private int _offset;
+
+    /** Index of the first entry of the current rows of _forward and
+     *  _backward. */
+    private int _base;
+
+    /** My wiring's forward conversion table. */
+    private final int[] _forward;
+
+    /** My wiring's backward conversion table. */
+    private final int[] _backward;
 }
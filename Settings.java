@@ -0,0 +1,122 @@
+package enigma;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+
+import static enigma.EnigmaException.*;
+
+/** A setting line, parsed and checked once so that it can be applied
+ *  to any number of machines, as often as needed, without parsing it
+ *  again: the definitions of the rotors to insert, resolved in the
+ *  library of the machine for which it was parsed; their positions and
+ *  rings, as alphabet indices; and the plugboard Permutation, which is
+ *  immutable and so shared by every machine set up from the line.
+ *  @author Hanqi Xiong
+ */
+final class Settings {
+
+    /** The setting line LINE for MACHINE, and for any other machine
+     *  sharing its rotor library: "*", the names of the rotors, their
+     *  positions, an optional ring string, and the plugboard cycles,
+     *  separated by blanks.  MACHINE is not changed. */
+    Settings(String line, Machine machine) {
+        int numRotors = machine.numRotors();
+        Alphabet alphabet = machine.alphabet();
+        String[] setting = line.trim().split(" ");
+        if (!setting[0].equals("*")) {
+            throw error("There must be * at the beginning");
+        }
+        if (setting.length < numRotors + 2) {
+            throw error("mismatch settings");
+        }
+        _numRotors = numRotors;
+        _names = Arrays.copyOfRange(setting, 1, numRotors + 1);
+        HashSet<String> names = new HashSet<>();
+        for (String name : _names) {
+            if (!names.add(name)) {
+                throw error("duplicated rotors");
+            }
+        }
+        _library = machine.registry();
+        _definitions = machine.definitions(_names);
+        if (!_definitions[0].reflecting()) {
+            throw error("first rotor must be reflecting");
+        }
+        _positions = indices(setting[numRotors + 1], alphabet);
+        int cycles = numRotors + 2;
+        if (cycles < setting.length && !setting[cycles].contains("(")) {
+            _rings = indices(setting[cycles], alphabet);
+            cycles += 1;
+        } else {
+            _rings = null;
+        }
+        StringBuilder plugboard = new StringBuilder();
+        for (int i = cycles; i < setting.length; i++) {
+            plugboard.append(setting[i]).append(' ');
+        }
+        _plugboard = new Permutation(plugboard.toString(), alphabet);
+    }
+
+    /** Return the alphabet indices of the characters of TEXT, a setting
+     *  or ring string for my _numRotors - 1 moving slots, in ALPHABET. */
+    private int[] indices(String text, Alphabet alphabet) {
+        String chars = alphabet.decode(text);
+        if (chars.length() != _numRotors - 1) {
+            throw error("must be a string of numRotors() - 1");
+        }
+        int[] result = new int[chars.length()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = alphabet.toInt(chars.charAt(i));
+            if (result[i] == Alphabet.UNKNOWN) {
+                throw error("character not in alphabet");
+            }
+        }
+        return result;
+    }
+
+    /** Return true iff I can be applied to M without resolving my
+     *  rotors again: M has the number of slots and rotor library of the
+     *  machine for which I was parsed. */
+    boolean fits(Machine M) {
+        return M.numRotors() == _numRotors && M.registry() == _library;
+    }
+
+    /** Return the number of rotor slots I am for. */
+    int numRotors() {
+        return _numRotors;
+    }
+
+    /** Insert my rotors into M, and set their positions and rings and
+     *  M's plugboard. */
+    void apply(Machine M) {
+        Rotor[] definitions = fits(M) ? _definitions
+            : M.definitions(_names);
+        if (!definitions[0].reflecting()) {
+            throw error("first rotor must be reflecting");
+        }
+        M.setUp(definitions, _positions, _rings, _plugboard);
+    }
+
+    /** Number of rotor slots. */
+    private final int _numRotors;
+
+    /** Names of the rotors, reflector first. */
+    private final String[] _names;
+
+    /** The rotor library in which _definitions were found. */
+    private final Map<String, Rotor> _library;
+
+    /** Definitions of the rotors named by _names in _library. */
+    private final Rotor[] _definitions;
+
+    /** Initial settings of the rotors in slots 1 on. */
+    private final int[] _positions;
+
+    /** Rings of the rotors in slots 1 on, or null to leave them at 0. */
+    private final int[] _rings;
+
+    /** The plugboard. */
+    private final Permutation _plugboard;
+
+}
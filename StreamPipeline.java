@@ -0,0 +1,290 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+
+import static enigma.EnigmaException.*;
+
+/** Converts an input channel in the format read by Main, chunk by chunk,
+ *  without materializing lines.  Setting lines are handed to a callback;
+ *  message characters are converted a batch at a time as they arrive and
+ *  written in groups of five through a reusable output buffer.
+ *  @author Hanqi Xiong
+ */
+class StreamPipeline {
+
+    /** A pipeline converting with MACHINE, passing each setting line to
+     *  SETTER, and writing to OUT.  Text is decoded and encoded with
+     *  CHARSET.  Long runs of message text are converted in parallel on
+     *  POOL, unless it is null. */
+    StreamPipeline(Machine machine, Consumer<String> setter,
+                   WritableByteChannel out, Charset charset,
+                   ForkJoinPool pool) {
+        _machine = machine;
+        _pool = pool;
+        _message = new char[pool == null ? BUFFER_SIZE : PARALLEL_BATCH];
+        _alphabet = machine.alphabet();
+        _setter = setter;
+        _out = out;
+        _decoder = charset.newDecoder();
+        _encoder = charset.newEncoder();
+        _chars = CharBuffer.allocate(BUFFER_SIZE);
+        _pending = CharBuffer.allocate(BUFFER_SIZE);
+        _bytes = ByteBuffer.allocateDirect(BUFFER_SIZE * 4);
+        _newline = System.lineSeparator();
+    }
+
+    /** Process all of IN, reading through a direct buffer. */
+    void run(ReadableByteChannel in) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_SIZE * 4);
+        while (in.read(buf) >= 0) {
+            buf.flip();
+            decode(buf, false);
+            buf.compact();
+        }
+        buf.flip();
+        decode(buf, true);
+        finish();
+    }
+
+    /** Process all of IN, a regular file, mapping it a window at a
+     *  time. */
+    void run(FileChannel in) throws IOException {
+        long size = in.size();
+        long start = 0;
+        while (start < size) {
+            long len = Math.min(MAP_WINDOW, size - start);
+            MappedByteBuffer window =
+                in.map(FileChannel.MapMode.READ_ONLY, start, len);
+            boolean last = start + len == size;
+            decode(window, last);
+            start += window.position();
+            if (!last && window.position() == 0) {
+                throw error("undecodable input");
+            }
+        }
+        if (size == 0) {
+            decode(ByteBuffer.allocate(0), true);
+        }
+        finish();
+    }
+
+    /** Decode and process the bytes in IN, leaving any incomplete
+     *  trailing character in IN unless LAST. */
+    private void decode(ByteBuffer in, boolean last) throws IOException {
+        while (true) {
+            CoderResult result = _decoder.decode(in, _chars, last);
+            if (result.isError()) {
+                throw error("undecodable input");
+            }
+            _chars.flip();
+            process(_chars);
+            _chars.clear();
+            if (result.isUnderflow()) {
+                break;
+            }
+        }
+        if (last) {
+            _decoder.flush(_chars);
+            _chars.flip();
+            process(_chars);
+            _chars.clear();
+        }
+    }
+
+    /** Process the characters in CHARS. */
+    private void process(CharBuffer chars) throws IOException {
+        while (chars.hasRemaining()) {
+            char ch = chars.get();
+            if (ch == '\r') {
+                endLine();
+                _afterReturn = true;
+                continue;
+            }
+            if (ch == '\n') {
+                if (!_afterReturn) {
+                    endLine();
+                }
+                _afterReturn = false;
+                continue;
+            }
+            _afterReturn = false;
+            if (_lineLength == 0 && ch == '*') {
+                convertMessage();
+                _inSetting = true;
+            }
+            _lineLength += 1;
+            if (_inSetting) {
+                _setting.append(ch);
+            } else if (ch != ' ') {
+                if (!_alphabet.contains(ch)) {
+                    throw error("character %c not in alphabet", ch);
+                }
+                if (_messageLength == _message.length) {
+                    convertMessage();
+                }
+                _message[_messageLength++] = ch;
+            }
+        }
+    }
+
+    /** Convert the message characters read so far and queue them for
+     *  output in groups. */
+    private void convertMessage() throws IOException {
+        if (_pool != null) {
+            _machine.convertParallel(_message, 0, _messageLength, _pool);
+        } else {
+            _machine.convert(_message, 0, _messageLength,
+                             UnknownPolicy.REJECT);
+        }
+        for (int i = 0; i < _messageLength; i++) {
+            if (_written > 0 && _written % GROUP == 0) {
+                put(' ');
+            }
+            put(_message[i]);
+            _written += 1;
+        }
+        _messageLength = 0;
+    }
+
+    /** Complete the current input line. */
+    private void endLine() throws IOException {
+        convertMessage();
+        if (_inSetting) {
+            _setter.accept(_setting.toString());
+            _setting.setLength(0);
+            _inSetting = false;
+        } else if (_lineLength == 0 || _written > 0) {
+            for (int i = 0; i < _newline.length(); i++) {
+                put(_newline.charAt(i));
+            }
+        }
+        _lineLength = 0;
+        _written = 0;
+    }
+
+    /** Complete an unterminated last line and flush all output. */
+    private void finish() throws IOException {
+        if (_lineLength > 0) {
+            endLine();
+        }
+        flush(true);
+    }
+
+    /** Append CH to the pending output. */
+    private void put(char ch) throws IOException {
+        if (!_pending.hasRemaining()) {
+            flush(false);
+        }
+        _pending.put(ch);
+    }
+
+    /** Encode and write the pending output, finishing the encoding
+     *  if LAST. */
+    private void flush(boolean last) throws IOException {
+        _pending.flip();
+        while (true) {
+            CoderResult result = _encoder.encode(_pending, _bytes, last);
+            if (result.isError()) {
+                throw error("unencodable output");
+            }
+            write();
+            if (result.isUnderflow()) {
+                break;
+            }
+        }
+        if (last) {
+            _encoder.flush(_bytes);
+            write();
+        }
+        _pending.compact();
+    }
+
+    /** Write out the encoded bytes. */
+    private void write() throws IOException {
+        _bytes.flip();
+        while (_bytes.hasRemaining()) {
+            _out.write(_bytes);
+        }
+        _bytes.clear();
+    }
+
+    /** Size, in characters, of the decoding and output buffers. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** Largest region of an input file mapped at once. */
+    private static final long MAP_WINDOW = 1L << 26;
+
+    /** Number of message characters converted together when converting
+     *  in parallel. */
+    private static final int PARALLEL_BATCH = 1 << 22;
+
+    /** Number of characters per output group. */
+    private static final int GROUP = 5;
+
+    /** The machine converting messages. */
+    private final Machine _machine;
+
+    /** Pool for parallel conversion, or null. */
+    private final ForkJoinPool _pool;
+
+    /** Message characters awaiting conversion. */
+    private final char[] _message;
+
+    /** Number of characters in _message. */
+    private int _messageLength;
+
+    /** The machine's alphabet. */
+    private final Alphabet _alphabet;
+
+    /** Receives each setting line. */
+    private final Consumer<String> _setter;
+
+    /** Destination of converted text. */
+    private final WritableByteChannel _out;
+
+    /** Decoder for the input. */
+    private final CharsetDecoder _decoder;
+
+    /** Encoder for the output. */
+    private final CharsetEncoder _encoder;
+
+    /** Decoded input awaiting processing. */
+    private final CharBuffer _chars;
+
+    /** Output awaiting encoding. */
+    private final CharBuffer _pending;
+
+    /** Encoded output awaiting writing. */
+    private final ByteBuffer _bytes;
+
+    /** Line terminator written after each output line. */
+    private final String _newline;
+
+    /** The setting line being accumulated. */
+    private final StringBuilder _setting = new StringBuilder();
+
+    /** True while reading a setting line. */
+    private boolean _inSetting;
+
+    /** True if the last character read was a carriage return. */
+    private boolean _afterReturn;
+
+    /** Number of characters read on the current line. */
+    private int _lineLength;
+
+    /** Number of converted characters written for the current line. */
+    private int _written;
+
+}
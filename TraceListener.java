@@ -0,0 +1,25 @@
+package enigma;
+
+/** Receives the successive contacts a signal passes through while a
+ *  Machine converts one character.  Machines with no listener skip
+ *  tracing altogether.
+ *  @author Hanqi Xiong
+ */
+interface TraceListener {
+
+    /** Called when MACHINE, whose rotors have already advanced, begins
+     *  converting the input C. */
+    void start(Machine machine, int c);
+
+    /** Called with the result C of the incoming pass through the
+     *  plugboard. */
+    void plugboard(int c);
+
+    /** Called with the CONTACT of ROTOR's permutation (at its 0 setting)
+     *  that the signal leaves from. */
+    void rotor(Rotor rotor, int contact);
+
+    /** Called with the final result C of the conversion. */
+    void finish(int c);
+
+}
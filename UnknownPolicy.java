@@ -0,0 +1,20 @@
+package enigma;
+
+/** What the bulk conversions of a Machine do with characters that are
+ *  not in its alphabet.
+ *  @author Hanqi Xiong
+ */
+enum UnknownPolicy {
+
+    /** Report the character with an EnigmaException. */
+    REJECT,
+
+    /** Drop the character from the output without advancing the
+     *  machine. */
+    SKIP,
+
+    /** Copy the character to the output unchanged without advancing
+     *  the machine. */
+    COPY
+
+}
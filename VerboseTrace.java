@@ -0,0 +1,47 @@
+package enigma;
+
+import java.io.PrintStream;
+
+/** A TraceListener that prints each conversion on one line in the form
+ *  "[SETTINGS] C -> C -> ... -> C", as for the --verbose option.
+ *  @author Hanqi Xiong
+ */
+class VerboseTrace implements TraceListener {
+
+    /** A listener printing to OUT. */
+    VerboseTrace(PrintStream out) {
+        _out = out;
+    }
+
+    @Override
+    public void start(Machine machine, int c) {
+        _alphabet = machine.alphabet();
+        _out.print("[");
+        for (int r = 1; r < machine.numRotors(); r += 1) {
+            _out.print(_alphabet.toChar(machine.getRotor(r).setting()));
+        }
+        _out.printf("] %c -> ", _alphabet.toChar(c));
+    }
+
+    @Override
+    public void plugboard(int c) {
+        _out.printf("%c -> ", _alphabet.toChar(c));
+    }
+
+    @Override
+    public void rotor(Rotor rotor, int contact) {
+        _out.printf("%c -> ", _alphabet.toChar(contact));
+    }
+
+    @Override
+    public void finish(int c) {
+        _out.printf("%c%n", _alphabet.toChar(c));
+    }
+
+    /** Destination of the trace. */
+    private final PrintStream _out;
+
+    /** Alphabet of the machine being traced. */
+    private Alphabet _alphabet;
+
+}
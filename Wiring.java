@@ -0,0 +1,139 @@
+package enigma;
+
+import static enigma.EnigmaException.*;
+
+/** The immutable description of a rotor: its name, permutation, notches
+ *  and the conversion tables compiled from them.  One Wiring may be
+ *  shared by any number of Rotors, in any number of Machines and threads;
+ *  each Rotor holds only its own setting and ring.
+ *  @author Hanqi Xiong
+ */
+final class Wiring {
+
+    /** The wiring of a rotor named NAME whose permutation at its 0
+     *  setting is PERM and whose notches are at the settings given by the
+     *  characters of NOTCHES. */
+    Wiring(String name, Permutation perm, String notches) {
+        _name = name;
+        _permutation = perm;
+        _notches = notches;
+        int n = perm.size();
+        _forward = new int[n * n];
+        _backward = new int[n * n];
+        for (int k = 0; k < n; k++) {
+            for (int p = 0; p < n; p++) {
+                _forward[k * n + p] =
+                    wrap(perm.permute(wrap(p + k, n)) - k, n);
+                _backward[k * n + p] =
+                    wrap(perm.invert(wrap(p + k, n)) - k, n);
+            }
+        }
+        _notchAt = new boolean[n];
+        for (int i = 0; i < notches.length(); i++) {
+            int posn = perm.alphabet().toInt(notches.charAt(i));
+            if (posn == Alphabet.UNKNOWN) {
+                throw error("notch %c not in alphabet", notches.charAt(i));
+            }
+            _notchAt[posn] = true;
+        }
+        _toNotch = new int[n];
+        int count = 0;
+        for (int p = 0; p < n; p++) {
+            _toNotch[p] = -1;
+            for (int d = 0; d < n; d++) {
+                if (_notchAt[wrap(p + d, n)]) {
+                    _toNotch[p] = d;
+                    break;
+                }
+            }
+            if (_notchAt[p]) {
+                count += 1;
+            }
+        }
+        _notchCount = count;
+    }
+
+    /** Return the name of the rotor. */
+    String name() {
+        return _name;
+    }
+
+    /** Return the permutation at the 0 setting. */
+    Permutation permutation() {
+        return _permutation;
+    }
+
+    /** Return the size of the alphabet. */
+    int size() {
+        return _permutation.size();
+    }
+
+    /** Return the notch settings, as a string of alphabet characters. */
+    String notches() {
+        return _notches;
+    }
+
+    /** Return the forward conversion table: entry K*size() + P is the
+     *  conversion of P when the setting less the ring is K.  The result
+     *  must not be modified. */
+    int[] forward() {
+        return _forward;
+    }
+
+    /** Return the backward conversion table, laid out as forward().
+     *  The result must not be modified. */
+    int[] backward() {
+        return _backward;
+    }
+
+    /** Return true iff POSN is a notch setting. */
+    boolean notchAt(int posn) {
+        return _notchAt[posn];
+    }
+
+    /** Return the least D >= 0 such that notchAt(POSN + D), taken modulo
+     *  size(), or -1 if there are no notches. */
+    int nextNotch(int posn) {
+        return _toNotch[posn];
+    }
+
+    /** Return the number of notch settings. */
+    int notchCount() {
+        return _notchCount;
+    }
+
+    /** Return P modulo SIZE. */
+    private static int wrap(int p, int size) {
+        int r = p % size;
+        if (r < 0) {
+            r += size;
+        }
+        return r;
+    }
+
+    /** Name of the rotor. */
+    private final String _name;
+
+    /** Permutation at the 0 setting. */
+    private final Permutation _permutation;
+
+    /** Notch settings as alphabet characters. */
+    private final String _notches;
+
+    /** Forward conversion at each offset. */
+    private final int[] _forward;
+
+    /** Backward conversion at each offset. */
+    private final int[] _backward;
+
+    /** True at each notch setting. */
+    private final boolean[] _notchAt;
+
+    /** Distance from each setting to the nearest notch at or after it,
+     *  or -1 if there are none. */
+    private final int[] _toNotch;
+
+    /** Number of notch settings. */
+    private final int _notchCount;
+
+}
@@ -0,0 +1,123 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/** Reproducible machine configurations and messages for the benchmarks.
+ *  @author Hanqi Xiong
+ */
+final class BenchConfigs {
+
+    /** Not instantiable. */
+    private BenchConfigs() {
+    }
+
+    /** Characters from which benchmark alphabets are drawn, excluding
+     *  blanks, parentheses and '*'. */
+    static final String SYMBOLS =
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789"
+        + "!\"#$%&'+,-./:;<=>?@[\\]^_`{|}~";
+
+    /** Return the first SIZE characters of SYMBOLS. */
+    static String alphabet(int size) {
+        if (size > SYMBOLS.length()) {
+            throw new IllegalArgumentException("alphabet too large");
+        }
+        return SYMBOLS.substring(0, size);
+    }
+
+    /** Return the text of a configuration file over an alphabet of
+     *  ALPHABETSIZE (even) characters with NUMROTORS slots, one fixed
+     *  rotor and NUMROTORS - 2 pawls, with twice as many moving rotors
+     *  as pawls to choose from.  The rotors are named R (reflector), F
+     *  (fixed) and M0, M1, ... (moving). */
+    static String config(int alphabetSize, int numRotors, long seed) {
+        Random random = new Random(seed);
+        String alpha = alphabet(alphabetSize);
+        StringBuilder out = new StringBuilder();
+        out.append(alpha).append('\n');
+        out.append(numRotors).append(' ').append(numRotors - 2).append('\n');
+        for (int i = 0; i < 2 * (numRotors - 2); i += 1) {
+            out.append('M').append(i).append(" M")
+                .append(alpha.charAt(random.nextInt(alphabetSize)))
+                .append(' ').append(cycles(alpha, random)).append('\n');
+        }
+        out.append("F N ").append(cycles(alpha, random)).append('\n');
+        out.append("R R ").append(reflector(alpha, random)).append('\n');
+        return out.toString();
+    }
+
+    /** Return a setting line for a configuration made by config with
+     *  NUMROTORS slots over an alphabet of ALPHABETSIZE characters. */
+    static String setting(int alphabetSize, int numRotors) {
+        String alpha = alphabet(alphabetSize);
+        StringBuilder out = new StringBuilder("* R F");
+        for (int i = 0; i < numRotors - 2; i += 1) {
+            out.append(" M").append(i);
+        }
+        out.append(' ');
+        for (int i = 1; i < numRotors; i += 1) {
+            out.append(alpha.charAt(i % alphabetSize));
+        }
+        out.append(" (").append(alpha, 0, 2).append(")");
+        return out.toString();
+    }
+
+    /** Return a random message of LENGTH characters of the alphabet of
+     *  size ALPHABETSIZE. */
+    static String message(int alphabetSize, int length, long seed) {
+        Random random = new Random(seed);
+        String alpha = alphabet(alphabetSize);
+        char[] msg = new char[length];
+        for (int i = 0; i < length; i += 1) {
+            msg[i] = alpha.charAt(random.nextInt(alphabetSize));
+        }
+        return new String(msg);
+    }
+
+    /** Write TEXT to a new temporary file and return its path. */
+    static Path write(String text) throws IOException {
+        Path path = Files.createTempFile("enigma-bench", ".txt");
+        path.toFile().deleteOnExit();
+        Files.write(path, text.getBytes(StandardCharsets.UTF_8));
+        return path;
+    }
+
+    /** Return a random single cycle through all of ALPHA. */
+    private static String cycles(String alpha, Random random) {
+        List<Character> chars = shuffled(alpha, random);
+        StringBuilder out = new StringBuilder("(");
+        for (char c : chars) {
+            out.append(c);
+        }
+        return out.append(')').toString();
+    }
+
+    /** Return a random pairing of the characters of ALPHA. */
+    private static String reflector(String alpha, Random random) {
+        List<Character> chars = shuffled(alpha, random);
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i + 1 < chars.size(); i += 2) {
+            out.append('(').append(chars.get(i)).append(chars.get(i + 1))
+                .append(") ");
+        }
+        return out.toString();
+    }
+
+    /** Return the characters of ALPHA in random order. */
+    private static List<Character> shuffled(String alpha, Random random) {
+        List<Character> chars = new ArrayList<>();
+        for (char c : alpha.toCharArray()) {
+            chars.add(c);
+        }
+        Collections.shuffle(chars, random);
+        return chars;
+    }
+
+}
@@ -0,0 +1,154 @@
+package enigma;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Benchmarks of the per-character operations of the engine: the
+ *  Permutation, Alphabet, Rotor and Machine conversions.
+ *  @author Hanqi Xiong
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EngineBenchmark {
+
+    /** Number of characters in the alphabet. */
+    @Param({ "26", "64", "90" })
+    public int alphabetSize;
+
+    /** Number of rotor slots. */
+    @Param({ "3", "5", "8" })
+    public int numRotors;
+
+    /** Number of characters converted by convertString. */
+    @Param({ "100", "10000" })
+    public int messageLength;
+
+    /** Configure a machine and draw random inputs. */
+    @Setup
+    public void setUp() throws Exception {
+        Path config = BenchConfigs.write(
+            BenchConfigs.config(alphabetSize, numRotors, SEED));
+        try (Main main = new Main(List.of(config.toString()))) {
+            _machine = main.readConfig();
+            main.setUp(_machine,
+                       BenchConfigs.setting(alphabetSize, numRotors));
+        }
+        _alphabet = _machine.alphabet();
+        _rotor = _machine.getRotor(numRotors - 1);
+        _permutation = _rotor.permutation();
+        _message = BenchConfigs.message(alphabetSize, messageLength, SEED);
+        ArrayList<Machine> lanes = new ArrayList<>();
+        for (int i = 0; i < BATCH_LANES; i += 1) {
+            lanes.add(new Machine(_machine));
+            _machine.convert(0);
+        }
+        _batch = new MachineBatch(lanes);
+        Random random = new Random(SEED);
+        _indices = new int[INPUTS];
+        _chars = new char[INPUTS];
+        for (int i = 0; i < INPUTS; i += 1) {
+            _indices[i] = random.nextInt(alphabetSize);
+            _chars[i] = _alphabet.toChar(_indices[i]);
+        }
+    }
+
+    /** Return the next random index. */
+    private int nextIndex() {
+        _next = (_next + 1) & (INPUTS - 1);
+        return _indices[_next];
+    }
+
+    @Benchmark
+    public int permute() {
+        return _permutation.permute(nextIndex());
+    }
+
+    @Benchmark
+    public int invert() {
+        return _permutation.invert(nextIndex());
+    }
+
+    @Benchmark
+    public int alphabetToInt() {
+        _next = (_next + 1) & (INPUTS - 1);
+        return _alphabet.toInt(_chars[_next]);
+    }
+
+    @Benchmark
+    public int rotorConvertForward() {
+        return _rotor.convertForward(nextIndex());
+    }
+
+    @Benchmark
+    public int machineConvertInt() {
+        return _machine.convert(nextIndex());
+    }
+
+    @Benchmark
+    public String machineConvertString() {
+        return _machine.convert(_message);
+    }
+
+    /** Converts _message under BATCH_LANES settings at once; divide
+     *  by messageLength * BATCH_LANES for the time per character. */
+    @Benchmark
+    public String[] batchConvertString() {
+        return _batch.convert(_message);
+    }
+
+    /** Seed for the configuration and inputs. */
+    private static final long SEED = 61;
+
+    /** Number of machines in _batch. */
+    private static final int BATCH_LANES = 16;
+
+    /** Number of precomputed random inputs (a power of 2). */
+    private static final int INPUTS = 1 << 12;
+
+    /** The configured machine. */
+    private Machine _machine;
+
+    /** Copies of the machine at successive positions. */
+    private MachineBatch _batch;
+
+    /** Its alphabet. */
+    private Alphabet _alphabet;
+
+    /** Its fast rotor. */
+    private Rotor _rotor;
+
+    /** The fast rotor's permutation. */
+    private Permutation _permutation;
+
+    /** Message for convertString. */
+    private String _message;
+
+    /** Random alphabet indices. */
+    private int[] _indices;
+
+    /** The characters at _indices. */
+    private char[] _chars;
+
+    /** Position of the last input used. */
+    private int _next;
+
+}
@@ -0,0 +1,107 @@
+package enigma;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Benchmarks of configuration parsing and of whole runs of Main, from
+ *  files to a file.  Multiply the ops/s of process and processStream by
+ *  messageLength for characters per second.
+ *  @author Hanqi Xiong
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MainBenchmark {
+
+    /** Number of characters in the alphabet. */
+    @Param({ "26", "90" })
+    public int alphabetSize;
+
+    /** Number of rotor slots. */
+    @Param({ "3", "5", "8" })
+    public int numRotors;
+
+    /** Number of message characters in the input. */
+    @Param({ "1000", "1000000" })
+    public int messageLength;
+
+    /** Write the configuration and input files. */
+    @Setup
+    public void setUp() throws Exception {
+        _config = BenchConfigs.write(
+            BenchConfigs.config(alphabetSize, numRotors, SEED)).toString();
+        String message =
+            BenchConfigs.message(alphabetSize, messageLength, SEED);
+        StringBuilder input = new StringBuilder();
+        input.append(BenchConfigs.setting(alphabetSize, numRotors))
+            .append('\n');
+        for (int i = 0; i < message.length(); i += LINE) {
+            input.append(message, i, Math.min(message.length(), i + LINE))
+                .append('\n');
+        }
+        _input = BenchConfigs.write(input.toString()).toString();
+        Path output = BenchConfigs.write("");
+        _output = output.toString();
+    }
+
+    /** Remove the output file. */
+    @TearDown
+    public void tearDown() {
+        new File(_output).delete();
+    }
+
+    @Benchmark
+    public Machine readConfig() {
+        try (Main main = new Main(List.of(_config))) {
+            return main.readConfig();
+        }
+    }
+
+    @Benchmark
+    public void process() {
+        try (Main main = new Main(List.of(_config, _input, _output))) {
+            main.process();
+        }
+    }
+
+    @Benchmark
+    public void processStream() {
+        try (Main main = new Main(List.of(_config, _input, _output))) {
+            main.processStream();
+        }
+    }
+
+    /** Seed for the configuration and message. */
+    private static final long SEED = 61;
+
+    /** Length of the input lines. */
+    private static final int LINE = 70;
+
+    /** Name of the configuration file. */
+    private String _config;
+
+    /** Name of the input file. */
+    private String _input;
+
+    /** Name of the output file. */
+    private String _output;
+
+}